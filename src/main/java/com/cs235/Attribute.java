@@ -1,5 +1,7 @@
 package com.cs235;
 
+import java.util.Objects;
+
 public class Attribute {
   public Features feature;
   public String value;
@@ -18,4 +20,9 @@ public class Attribute {
     if (obj == null) return false;
     return feature.equals(((Attribute) obj).feature) && ((value != null && value.equals(((Attribute) obj).value)) || (value == null && ((Attribute) obj).value == null));
   }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(feature, value);
+  }
 }
@@ -0,0 +1,223 @@
+package com.cs235;
+
+import org.postgresql.copy.CopyIn;
+
+import java.sql.SQLException;
+
+/**
+ * Writes rows to a COPY ... FROM STDIN (FORMAT binary), converting the CSV values to the column types on the client
+ * so the server only copies the binary values instead of parsing every field
+ * <p>
+ * the rows are encoded into one reused buffer (text is UTF-8 encoded in place) which is sent whenever it is full,
+ * so writing a row allocates nothing
+ * <p>
+ * a value is read the way the CSV COPY reads the projected CSV: an empty field is NULL, anything else is converted
+ * to the column type (surrounding blanks allowed), so a blank or a literal null in a non text column fails the COPY
+ */
+public class BinaryCopyWriter {
+
+  private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int NULL_LENGTH = -1;
+
+  private final CopyIn copyIn;
+  private final CSVImporter.FieldType[] types;
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private long row;
+
+  /**
+   * @param copyIn the started binary COPY
+   * @param types  the type of each column of the COPY
+   * @throws SQLException
+   */
+  public BinaryCopyWriter(CopyIn copyIn, CSVImporter.FieldType[] types) throws SQLException {
+    this.copyIn = copyIn;
+    this.types = types;
+
+    write(SIGNATURE);
+    writeInt(0); // flags
+    writeInt(0); // header extension length
+  }
+
+  /**
+   * @param type a column type
+   * @return whether values of the type are converted by the writer
+   */
+  public static boolean supports(CSVImporter.FieldType type) {
+    return type != CSVImporter.FieldType.fieldTypeDate && type != CSVImporter.FieldType.fieldTypePercentage;
+  }
+
+  /**
+   * @param values the CSV values of the row
+   * @param fields the index of the value of each column
+   * @throws SQLException
+   */
+  public void writeRow(String[] values, int[] fields) throws SQLException {
+    row++;
+    ensureCapacity(2);
+    writeShort(types.length);
+    for (int i = 0; i < types.length; i++) {
+      String value = fields[i] < values.length ? values[fields[i]] : null;
+      try {
+        writeValue(types[i], value);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(String.format("Row %s: value '%s' is not a %s", row, value, types[i].toDBFieldType()), e);
+      }
+    }
+  }
+
+  /**
+   * send the trailer and the buffered rows and end the COPY
+   *
+   * @return the number of rows copied
+   * @throws SQLException
+   */
+  public long endCopy() throws SQLException {
+    ensureCapacity(2);
+    writeShort(-1);
+    flush();
+    return copyIn.endCopy();
+  }
+
+  public void cancelCopy() throws SQLException {
+    if (copyIn.isActive()) {
+      copyIn.cancelCopy();
+    }
+  }
+
+  private void writeValue(CSVImporter.FieldType type, String value) throws SQLException {
+    // the projected CSV writes an empty field unquoted, which the CSV COPY loads as NULL
+    if (value == null || value.isEmpty()) {
+      ensureCapacity(4);
+      writeInt(NULL_LENGTH);
+      return;
+    }
+    if (type == CSVImporter.FieldType.fieldTypeText) {
+      writeText(value);
+      return;
+    }
+
+    String trimmed = value.trim();
+    ensureCapacity(12);
+    switch (type) {
+      case fieldTypeSmallInt:
+        long smallInt = Long.parseLong(trimmed);
+        if (smallInt < Short.MIN_VALUE || smallInt > Short.MAX_VALUE) {
+          throw new NumberFormatException("out of range");
+        }
+        writeInt(2);
+        writeShort((int) smallInt);
+        break;
+      case fieldTypeInteger:
+        writeInt(4);
+        writeInt(Integer.parseInt(trimmed));
+        break;
+      case fieldTypeOID:
+      case fieldTypeBigInt:
+        writeInt(8);
+        writeLong(Long.parseLong(trimmed));
+        break;
+      case fieldTypeFloat:
+        writeInt(8);
+        writeLong(Double.doubleToLongBits(Double.parseDouble(trimmed)));
+        break;
+      case fieldTypeBoolean:
+        writeInt(1);
+        buffer[position++] = parseBoolean(trimmed) ? (byte) 1 : (byte) 0;
+        break;
+      default:
+        throw new IllegalArgumentException(String.format("Binary COPY does not support %s", type));
+    }
+  }
+
+  static boolean parseBoolean(String value) {
+    if ("true".equalsIgnoreCase(value) || "t".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value) || "y".equalsIgnoreCase(value) || "1".equals(value)) {
+      return true;
+    }
+    if ("false".equalsIgnoreCase(value) || "f".equalsIgnoreCase(value) || "no".equalsIgnoreCase(value) || "n".equalsIgnoreCase(value) || "0".equals(value)) {
+      return false;
+    }
+    throw new NumberFormatException("not a boolean");
+  }
+
+  /**
+   * UTF-8 encode the text behind its length, the length is filled in once the text is encoded
+   */
+  private void writeText(String value) throws SQLException {
+    ensureCapacity(4 + 3 * value.length());
+    int lengthPosition = position;
+    position += 4;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xc0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else {
+        if (Character.isSurrogate(c)) {
+          c = '?'; // unpaired surrogate
+        }
+        buffer[position++] = (byte) (0xe0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    int length = position - lengthPosition - 4;
+    buffer[lengthPosition] = (byte) (length >>> 24);
+    buffer[lengthPosition + 1] = (byte) (length >>> 16);
+    buffer[lengthPosition + 2] = (byte) (length >>> 8);
+    buffer[lengthPosition + 3] = (byte) length;
+  }
+
+  private void write(byte[] bytes) throws SQLException {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+  }
+
+  private void writeShort(int value) {
+    buffer[position++] = (byte) (value >>> 8);
+    buffer[position++] = (byte) value;
+  }
+
+  private void writeInt(int value) {
+    buffer[position++] = (byte) (value >>> 24);
+    buffer[position++] = (byte) (value >>> 16);
+    buffer[position++] = (byte) (value >>> 8);
+    buffer[position++] = (byte) value;
+  }
+
+  private void writeLong(long value) {
+    writeInt((int) (value >>> 32));
+    writeInt((int) value);
+  }
+
+  /**
+   * send the buffer when the next bytes do not fit, and grow it for a single value larger than the buffer
+   */
+  private void ensureCapacity(int bytes) throws SQLException {
+    if (position + bytes <= buffer.length) {
+      return;
+    }
+    flush();
+    if (bytes > buffer.length) {
+      buffer = new byte[bytes];
+    }
+  }
+
+  private void flush() throws SQLException {
+    if (position > 0) {
+      copyIn.writeToCopy(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+}
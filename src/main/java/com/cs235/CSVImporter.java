@@ -1,55 +1,85 @@
 package com.cs235;
 
+import com.cs235.database.ConnectionPool;
 import com.cs235.database.IdGenerator;
 import com.cs235.database.SQLUtils;
 import com.cs235.database.StringTemplate;
+import com.cs235.dataset.EmbeddedTable;
+import com.cs235.dataset.EncodedDataset;
+import com.cs235.dataset.ValueDictionary;
 import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.PGCopyOutputStream;
 import org.postgresql.core.BaseConnection;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class CSVImporter {
 
   private static final String CREATE_TABLE = "CREATE TABLE ${name} (${fields})";
   private static final String COPY_TABLE = "COPY ${name} (${fields}) FROM STDIN CSV ${constraints}";
+  private static final String BINARY_COPY_TABLE = "COPY ${name} (${fields}) FROM STDIN (FORMAT binary)";
   private static final String FIELD = "${name} ${type}${constraints}";
+  private static final String FILE_CSV_OPTIONS = "DELIMITER ',' QUOTE '\"' ESCAPE E'\\\\' ";
+  private static final String PROJECTED_CSV_OPTIONS = "DELIMITER ',' QUOTE '\"' ESCAPE '\"'";
 
-  private static final Integer OVER_BIG_INT = 2_147_483_647;
-  private static final Integer UNDER_BIG_INT = -2_147_483_648;
+  public static final int DEFAULT_SAMPLE_ROWS = 10_000;
+  private static final int MIN_CHUNK_ROWS = 1_000;
+  private static final int COPY_BUFFER_SIZE = 1 << 16;
+  private static final String DATA_EXCEPTION_CLASS = "22"; // SQLSTATE class of invalid or out of range values
 
+  /**
+   * @param thisStr a CSV value
+   * @return the narrowest type of the value, text for a missing value
+   */
   public static FieldType getType(String thisStr) {
-    String value = thisStr;
-    if (value != null) {
-      value = value.trim();
-      if (value.isEmpty() || "null".equalsIgnoreCase(value)) {
-        value = null;
-      }
+    FieldType type = inferType(thisStr);
+    return type == null ? FieldType.fieldTypeText : type;
+  }
+
+  /**
+   * @param thisStr a CSV value
+   * @return the narrowest type of the value, null for a missing value (which fits every type)
+   * only an empty field is missing, as the COPY only loads that as NULL (a blank or a literal null is text)
+   */
+  private static FieldType inferType(String thisStr) {
+    if (thisStr == null || thisStr.isEmpty()) {
+      return null;
     }
+    String value = thisStr.trim();
 
-    if (value != null && NumberUtils.isNumber(value)) {
+    if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+      return FieldType.fieldTypeBoolean;
+    }
+
+    if (NumberUtils.isNumber(value)) {
       try {
-        Integer.valueOf(value); // make sure this is an integer and not a double
-        return FieldType.fieldTypeInteger;
+        long v = Long.parseLong(value); // make sure this is an integer and not a double
+        if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+          return FieldType.fieldTypeSmallInt;
+        } else if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+          return FieldType.fieldTypeInteger;
+        }
+        return FieldType.fieldTypeBigInt;
       } catch (Exception e) {
         try {
           Double v = Double.parseDouble(value);
           if (!Double.isNaN(v) && !Double.isInfinite(v)) {
-            if (v == Math.rint(v) && (v > OVER_BIG_INT || v < UNDER_BIG_INT)) {
-              return FieldType.fieldTypeBigInt;
-            } else {
-              return FieldType.fieldTypeFloat;
-            }
+            return FieldType.fieldTypeFloat;
           } else {
             return FieldType.fieldTypeText;
           }
@@ -61,43 +91,257 @@ public class CSVImporter {
     return FieldType.fieldTypeText;
   }
 
+  /**
+   * infer the type of every column from the sampled rows, the rows are split into chunks inferred in parallel
+   * and the types of the chunks are widened into the type fitting every value (a column without any value is text)
+   *
+   * @param sample  the sampled rows
+   * @param columns the number of columns
+   * @return the type of each column
+   */
+  public static FieldType[] inferTypes(List<String[]> sample, int columns) {
+    int chunkRows = Math.max(MIN_CHUNK_ROWS, sample.size() / Runtime.getRuntime().availableProcessors());
+    int chunks = (sample.size() + chunkRows - 1) / chunkRows;
+
+    FieldType[] types = IntStream.range(0, chunks).parallel()
+      .mapToObj(chunk -> inferTypes(sample, chunk * chunkRows, Math.min(sample.size(), (chunk + 1) * chunkRows), columns))
+      .reduce(new FieldType[columns], CSVImporter::widen);
+    return textWhenMissing(types);
+  }
+
+  /**
+   * infer the type of every projected column of the file from the sampled rows
+   *
+   * @param file            the input CSV dataset
+   * @param sampleRows      the number of rows (after the header) the types are inferred from
+   * @param projectedFields the indexes of the projected fields
+   * @return the type of each projected column
+   * @throws Exception
+   */
+  static FieldType[] inferTypes(File file, int sampleRows, int[] projectedFields) throws Exception {
+    try (
+      Reader fileReader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+      CSVReader csvReader = new CSVReader(fileReader)) {
+
+      csvReader.readNext();
+      List<String[]> sample = new ArrayList<>();
+      String[] rowValues;
+      while (sample.size() < sampleRows && (rowValues = csvReader.readNext()) != null) {
+        sample.add(project(rowValues, projectedFields));
+      }
+      return inferTypes(sample, projectedFields.length);
+    }
+  }
+
+  /**
+   * infer the type of every projected column of the file from every record, read in parallel chunks (see ParallelCopyLoader)
+   * only needed when a value past the sample does not fit the type of the sample (i.e. 40000 or 1.5 in a column sampled as smallint)
+   *
+   * @param file            the input CSV dataset
+   * @param projectedFields the indexes of the projected fields
+   * @return the type of each projected column
+   * @throws Exception
+   */
+  static FieldType[] inferTypes(File file, int[] projectedFields) throws Exception {
+    List<FieldType[]> chunkTypes = ParallelCopyLoader.read(file, true, chunk -> {
+      try (CSVReader csvReader = new CSVReader(new InputStreamReader(chunk, StandardCharsets.UTF_8))) {
+        FieldType[] types = new FieldType[projectedFields.length];
+        String[] rowValues;
+        while ((rowValues = csvReader.readNext()) != null) {
+          widen(types, project(rowValues, projectedFields));
+        }
+        return types;
+      }
+    });
+    return textWhenMissing(chunkTypes.stream().reduce(new FieldType[projectedFields.length], CSVImporter::widen));
+  }
+
+  private static FieldType[] inferTypes(List<String[]> sample, int fromRow, int toRow, int columns) {
+    FieldType[] types = new FieldType[columns];
+    for (int row = fromRow; row < toRow; row++) {
+      widen(types, sample.get(row));
+    }
+    return types;
+  }
+
+  private static void widen(FieldType[] types, String[] rowValues) {
+    for (int i = 0; i < types.length && i < rowValues.length; i++) {
+      if (types[i] != FieldType.fieldTypeText) {
+        types[i] = FieldType.widen(types[i], inferType(rowValues[i]));
+      }
+    }
+  }
+
+  private static FieldType[] widen(FieldType[] left, FieldType[] right) {
+    FieldType[] types = new FieldType[left.length];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = FieldType.widen(left[i], right[i]);
+    }
+    return types;
+  }
+
+  private static FieldType[] textWhenMissing(FieldType[] types) {
+    for (int i = 0; i < types.length; i++) {
+      if (types[i] == null) {
+        types[i] = FieldType.fieldTypeText;
+      }
+    }
+    return types;
+  }
+
   public static String importToDatabaseTable(File file) throws Exception {
+    return importToDatabaseTable(file, DEFAULT_SAMPLE_ROWS);
+  }
 
-    String tableName = IdGenerator.generate("dataset_");
+  /**
+   * @param file       the input CSV dataset
+   * @param sampleRows the number of rows (after the header) the column types are inferred from
+   * @return the name of the new table
+   * @throws Exception
+   */
+  public static String importToDatabaseTable(File file, int sampleRows) throws Exception {
+    return importToDatabaseTable(file, sampleRows, null);
+  }
 
-    List<String> fieldsForCreateTable = new ArrayList<>();
-    List<String> fieldsForCopyTable = new ArrayList<>();
+  /**
+   * @param file       the input CSV dataset
+   * @param projection the (lower case) columns to import
+   * @return the name of the new table
+   * @throws Exception
+   */
+  public static String importToDatabaseTable(File file, Collection<String> projection) throws Exception {
+    return importToDatabaseTable(file, DEFAULT_SAMPLE_ROWS, projection);
+  }
+
+  /**
+   * Import the CSV file into a new table
+   * with a projection only the projected columns are created, the CSV is parsed and only the projected fields
+   * of every row are streamed to the COPY, otherwise the file is copied as is
+   *
+   * @param file       the input CSV dataset
+   * @param sampleRows the number of rows (after the header) the column types are inferred from
+   * @param projection the (lower case) columns to import, null for every column
+   * @return the name of the new table
+   * @throws Exception
+   */
+  public static String importToDatabaseTable(File file, int sampleRows, Collection<String> projection) throws Exception {
+    return importToDatabaseTable(file, sampleRows, projection, 1);
+  }
 
-    Map<String, FieldType> headers = new LinkedHashMap<>();
+  /**
+   * @param file        the input CSV dataset
+   * @param sampleRows  the number of rows (after the header) the column types are inferred from
+   * @param projection  the (lower case) columns to import, null for every column
+   * @param connections the number of concurrent COPY streams
+   * @return the name of the new table
+   * @throws Exception
+   */
+  public static String importToDatabaseTable(File file, int sampleRows, Collection<String> projection, int connections) throws Exception {
+    return importToDatabaseTable(file, sampleRows, projection, connections, CopyFormat.CSV);
+  }
+
+  /**
+   * Import the CSV file into a new table
+   * with a projection only the projected columns are created, the CSV is parsed and only the projected fields
+   * of every row are streamed to the COPY, otherwise the file is copied as is
+   * with more than one connection the file is split into chunks copied concurrently (see ParallelCopyLoader)
+   * the BINARY format converts the values to the inferred column types on the client (see BinaryCopyWriter)
+   * <p>
+   * the column types are inferred from the sampled rows, when the COPY rejects a later value (i.e. 40000 in a column sampled
+   * as smallint) the table is dropped and the file imported again with the types inferred from every record
+   *
+   * @param file        the input CSV dataset
+   * @param sampleRows  the number of rows (after the header) the column types are inferred from
+   * @param projection  the (lower case) columns to import, null for every column
+   * @param connections the number of concurrent COPY streams
+   * @param format      the format the rows are sent to the COPY in
+   * @return the name of the new table
+   * @throws Exception
+   */
+  public static String importToDatabaseTable(File file, int sampleRows, Collection<String> projection, int connections, CopyFormat format) throws Exception {
+
+    List<String> columns = new ArrayList<>();
+    int[] projectedFields;
+    FieldType[] types;
     try (
       Reader fileReader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
       CSVReader csvReader = new CSVReader(fileReader)) {
 
       String[] rowValues = csvReader.readNext();
       List<String> headerRow = Arrays.asList(rowValues);
+      projectedFields = getProjectedFields(headerRow, projection);
+      types = inferTypes(file, sampleRows, projectedFields);
 
-      rowValues = csvReader.readNext();
-      List<String> firstRecordRow = Arrays.asList(rowValues);
-
-      for (int i = 0; i < headerRow.size(); i++) {
-        headers.put(headerRow.get(i).toLowerCase().trim(), getType(firstRecordRow.get(i)));
+      for (int projectedField : projectedFields) {
+        columns.add(headerRow.get(projectedField).toLowerCase().trim());
       }
 
+    } catch (IllegalArgumentException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
 
-    headers.entrySet().stream().map(t -> String.format("%s %s", t.getKey(), t.getValue().toDBFieldType())).collect(Collectors.joining(","));
+    try {
+      return copyToNewTable(file, columns, types, projection, projectedFields, connections, format);
+    } catch (Exception e) {
+      if (!isRejectedValue(e)) {
+        throw e;
+      }
+      System.out.println(String.format(" a value past the %s sampled rows does not fit its column type, inferring the types from every row", sampleRows));
+      return copyToNewTable(file, columns, inferTypes(file, projectedFields), projection, projectedFields, connections, format);
+    }
+  }
+
+  /**
+   * @param e the failure of an import
+   * @return whether a value was rejected by its column type, by the server (a data exception) or by the binary conversion
+   */
+  static boolean isRejectedValue(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof NumberFormatException) {
+        return true;
+      }
+      if (cause instanceof SQLException) {
+        String sqlState = ((SQLException) cause).getSQLState();
+        if (sqlState != null && sqlState.startsWith(DATA_EXCEPTION_CLASS)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * create a table of the columns and copy the file into it, the table is dropped again when the copy fails
+   *
+   * @return the name of the new table
+   */
+  private static String copyToNewTable(File file, List<String> columns, FieldType[] columnTypes, Collection<String> projection,
+                                       int[] projectedFields, int connections, CopyFormat format) throws Exception {
+
+    String tableName = IdGenerator.generate("dataset_");
 
-    for (Map.Entry<String, FieldType> entrySet : headers.entrySet()) {
+    List<String> fieldsForCreateTable = new ArrayList<>();
+    List<String> fieldsForCopyTable = new ArrayList<>();
+
+    if (format == CopyFormat.BINARY) {
+      for (int i = 0; i < columns.size(); i++) {
+        if (!BinaryCopyWriter.supports(columnTypes[i])) {
+          throw new IllegalArgumentException(String.format("Column %s of type %s can not be copied in binary", columns.get(i), columnTypes[i]));
+        }
+      }
+    }
+
+    for (int i = 0; i < columns.size(); i++) {
       fieldsForCreateTable.add(new StringTemplate(FIELD)
-        .put("name", SQLUtils.escapeIdentifier(entrySet.getKey()))
-        .put("type", entrySet.getValue().toDBFieldType())
+        .put("name", SQLUtils.escapeIdentifier(columns.get(i)))
+        .put("type", columnTypes[i].toDBFieldType())
         .put("constraints", "")
         .build());
 
       fieldsForCopyTable.add(new StringTemplate(FIELD)
-        .put("name", SQLUtils.escapeIdentifier(entrySet.getKey()))
+        .put("name", SQLUtils.escapeIdentifier(columns.get(i)))
         .put("type", "")
         .put("constraints", "")
         .build());
@@ -108,44 +352,477 @@ public class CSVImporter {
       .put("fields", fieldsForCreateTable.stream().collect(Collectors.joining(",")))
       .build();
 
-    try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
+    try (Connection connection = ConnectionPool.getConnection();
          PreparedStatement ps = connection.prepareStatement(createTableSql)) {
       ps.execute();
     }
 
-    String copyTableSql = new StringTemplate(COPY_TABLE)
+    try {
+      copy(file, tableName, fieldsForCopyTable, columnTypes, projection, projectedFields, connections, format);
+    } catch (Exception e) {
+      dropTable(tableName);
+      throw e;
+    }
+    return tableName;
+  }
+
+  private static void copy(File file, String tableName, List<String> fieldsForCopyTable, FieldType[] columnTypes, Collection<String> projection,
+                           int[] projectedFields, int connections, CopyFormat format) throws Exception {
+    String copyFields = fieldsForCopyTable.stream().collect(Collectors.joining(","));
+    String copyTableSql = new StringTemplate(format == CopyFormat.BINARY ? BINARY_COPY_TABLE : COPY_TABLE)
       .put("name", SQLUtils.escapeIdentifier(tableName))
-      .put("fields", fieldsForCopyTable.stream().collect(Collectors.joining(",")))
-      .put("constraints", "HEADER DELIMITER ',' QUOTE '\"' ESCAPE E'\\\\' ")
+      .put("fields", copyFields)
+      .put("constraints", projection == null ? FILE_CSV_OPTIONS : PROJECTED_CSV_OPTIONS)
       .build();
 
-    try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
-         FileInputStream fileInputStream = new FileInputStream(file.getAbsoluteFile());
-         InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream, StandardCharsets.UTF_8)) {
-      CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
-      copyManager.copyIn(copyTableSql, inputStreamReader);
+    if (connections > 1) {
+      ParallelCopyLoader.ChunkCopier copier;
+      if (format == CopyFormat.BINARY) {
+        copier = (connection, chunk) -> copyBinary(connection, new InputStreamReader(chunk, StandardCharsets.UTF_8), copyTableSql, columnTypes, projectedFields, false);
+      } else if (projection == null) {
+        copier = (connection, chunk) -> new CopyManager(connection.unwrap(BaseConnection.class)).copyIn(copyTableSql, chunk);
+      } else {
+        copier = (connection, chunk) -> copyProjected(connection, new InputStreamReader(chunk, StandardCharsets.UTF_8), copyTableSql, projectedFields, false);
+      }
+      ParallelCopyLoader.LoadStatistics statistics = new ParallelCopyLoader(connections).load(file, true, copier);
+      System.out.println(String.format(" copied %s", statistics));
+    } else if (format == CopyFormat.BINARY) {
+      try (Connection connection = ConnectionPool.getConnection();
+           Reader fileReader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+        copyBinary(connection, fileReader, copyTableSql, columnTypes, projectedFields, true);
+      }
+    } else if (projection == null) {
+      try (Connection connection = ConnectionPool.getConnection();
+           FileInputStream fileInputStream = new FileInputStream(file.getAbsoluteFile());
+           InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream, StandardCharsets.UTF_8)) {
+        CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
+        String copyWithHeaderSql = new StringTemplate(COPY_TABLE)
+          .put("name", SQLUtils.escapeIdentifier(tableName))
+          .put("fields", copyFields)
+          .put("constraints", "HEADER " + FILE_CSV_OPTIONS)
+          .build();
+        copyManager.copyIn(copyWithHeaderSql, inputStreamReader);
+      }
+    } else {
+      try (Connection connection = ConnectionPool.getConnection();
+           Reader fileReader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+        copyProjected(connection, fileReader, copyTableSql, projectedFields, true);
+      }
+    }
+  }
+
+  /**
+   * Import the CSV file into a new table unless the same content was already imported with the same projection,
+   * in which case the cataloged table is reused (see ImportCatalog), the tables of previous contents of the file are dropped
+   *
+   * @param file        the input CSV dataset
+   * @param sampleRows  the number of rows (after the header) the column types are inferred from
+   * @param projection  the (lower case) columns to import, null for every column
+   * @param connections the number of concurrent COPY streams
+   * @return the name of the (reused) table
+   * @throws Exception
+   */
+  public static String importToCatalogedTable(File file, int sampleRows, Collection<String> projection, int connections) throws Exception {
+    String importKey = ImportCatalog.importKey(projection);
+    ImportCatalog.createIfMissing();
+
+    String tableName = ImportCatalog.findByFile(file, importKey);
+    if (tableName != null) {
+      System.out.println(String.format(" reusing %s, %s is unchanged", tableName, file));
+      return tableName;
     }
 
+    FileFingerprint fingerprint = FileFingerprint.of(file);
+    tableName = ImportCatalog.findByHash(fingerprint, file, importKey);
+    if (tableName != null) {
+      System.out.println(String.format(" reusing %s, imported from the same content as %s", tableName, file));
+    } else {
+      String importedTable = importToDatabaseTable(file, sampleRows, projection, connections);
+      tableName = ImportCatalog.register(fingerprint, file, importKey, importedTable);
+      if (!tableName.equals(importedTable)) {
+        dropTable(importedTable);
+      }
+    }
+
+    int dropped = ImportCatalog.collectGarbage(file, fingerprint.hash);
+    if (dropped > 0) {
+      System.out.println(String.format(" dropped %s stale tables of %s", dropped, file));
+    }
     return tableName;
   }
 
+  /**
+   * Parse the CSV file into memory in place of a database table, streaming the records once
+   * the columns are typed the same as for a table (see importToDatabaseTable) and every feature value is held the way
+   * the database returns it from a column of that type, so the encoded values match the ones loaded from an imported table
+   * <p>
+   * the raw feature values are dictionary encoded while the records are streamed, the types are inferred from the
+   * sampled rows and widened to the types of every record when a later value does not fit them (as the import retries a
+   * rejected COPY), and the distinct values are then normalized to those types once each
+   *
+   * @param file           the input CSV file
+   * @param sampleRows     the number of rows (after the header) the column types are inferred from
+   * @param numericColumns the (lower case) columns to hold as doubles besides the features
+   * @return the parsed table
+   * @throws Exception
+   */
+  public static EmbeddedTable importToMemory(File file, int sampleRows, List<String> numericColumns) throws Exception {
+    List<Features> features = Arrays.asList(Features.values());
+    List<String> projection = new ArrayList<>();
+    features.forEach(feature -> projection.add(feature.getLabel()));
+    projection.addAll(numericColumns);
+
+    try (
+      Reader fileReader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+      CSVReader csvReader = new CSVReader(fileReader)) {
+
+      String[] rowValues = csvReader.readNext();
+      if (rowValues == null) {
+        throw new IllegalArgumentException(String.format("%s has no header", file));
+      }
+      List<String> headerRow = Arrays.asList(rowValues);
+      int[] projectedFields = getProjectedFields(headerRow, projection);
+
+      Map<String, Integer> fieldIndex = new HashMap<>();
+      for (int projectedField : projectedFields) {
+        fieldIndex.put(headerRow.get(projectedField).toLowerCase().trim(), projectedField);
+      }
+      int[] featureFields = features.stream().mapToInt(feature -> fieldIndex.get(feature.getLabel())).toArray();
+      int[] numericFields = numericColumns.stream().mapToInt(fieldIndex::get).toArray();
+
+      ValueDictionary[] rawDictionaries = new ValueDictionary[features.size()];
+      for (int f = 0; f < rawDictionaries.length; f++) {
+        rawDictionaries[f] = new ValueDictionary();
+      }
+      EncodedDataset.Builder rawBuilder = new EncodedDataset.Builder(features, rawDictionaries);
+      FieldType[] featureTypes = new FieldType[features.size()];
+      FieldType[] sampleFeatureTypes = null;
+      FieldType[] numericTypes = new FieldType[numericFields.length];
+      boolean sampleTypesFit = true;
+
+      String[] values = new String[features.size()];
+      int capacity = DEFAULT_SAMPLE_ROWS;
+      double[][] numericValues = new double[numericFields.length][capacity];
+      int rows = 0;
+      while ((rowValues = csvReader.readNext()) != null) {
+        if (rows == sampleRows) {
+          sampleFeatureTypes = textWhenMissing(featureTypes.clone());
+          textWhenMissing(numericTypes);
+        }
+        if (rows == capacity) {
+          capacity = rows * 2;
+          for (int c = 0; c < numericValues.length; c++) {
+            numericValues[c] = Arrays.copyOf(numericValues[c], capacity);
+          }
+        }
+        for (int f = 0; f < values.length; f++) {
+          values[f] = featureFields[f] < rowValues.length ? rowValues[featureFields[f]] : null;
+          if (rawDictionaries[f].lookup(values[f]) == ValueDictionary.MISSING && featureTypes[f] != FieldType.fieldTypeText) {
+            featureTypes[f] = FieldType.widen(featureTypes[f], inferType(values[f]));
+          }
+        }
+        rawBuilder.addRow(values);
+
+        String value = null;
+        try {
+          for (int c = 0; c < numericFields.length; c++) {
+            value = numericFields[c] < rowValues.length ? rowValues[numericFields[c]] : null;
+            if (rows < sampleRows) {
+              numericTypes[c] = FieldType.widen(numericTypes[c], inferType(value));
+            } else if (sampleTypesFit) {
+              sampleTypesFit = fits(numericTypes[c], value);
+            }
+            numericValues[c][rows] = value == null || value.isEmpty() ? Double.NaN : Double.parseDouble(value.trim());
+          }
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException(String.format("Row %s: value '%s' does not match its column type", rows + 1, value), e);
+        }
+        rows++;
+      }
+      EncodedDataset raw = rawBuilder.build();
+      textWhenMissing(featureTypes);
+
+      FieldType[] types = featureTypes;
+      if (sampleFeatureTypes != null) {
+        for (int f = 0; f < features.size() && sampleTypesFit; f++) {
+          for (int code = 0; code < rawDictionaries[f].size() && sampleTypesFit; code++) {
+            sampleTypesFit = fits(sampleFeatureTypes[f], rawDictionaries[f].decode(code));
+          }
+        }
+        if (sampleTypesFit) {
+          types = sampleFeatureTypes;
+        } else {
+          System.out.println(String.format(" a value past the %s sampled rows does not fit its column type, using the types of every row", sampleRows));
+        }
+      }
+
+      // the normalized value of every raw code, then the rows are encoded again in order so the codes are assigned as for a table
+      String[][] normalized = new String[features.size()][];
+      for (int f = 0; f < normalized.length; f++) {
+        normalized[f] = new String[rawDictionaries[f].size()];
+        for (int code = 0; code < normalized[f].length; code++) {
+          String value = rawDictionaries[f].decode(code);
+          try {
+            normalized[f][code] = types[f].toDBValue(value);
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Column %s: value '%s' does not match its column type", features.get(f).getLabel(), value), e);
+          }
+        }
+      }
+      EncodedDataset.Builder builder = new EncodedDataset.Builder(features);
+      for (int row = 0; row < rows; row++) {
+        for (int f = 0; f < values.length; f++) {
+          values[f] = normalized[f][raw.getCode(features.get(f), row)];
+        }
+        builder.addRow(values);
+      }
+
+      Map<String, double[]> numericColumnValues = new LinkedHashMap<>();
+      for (int c = 0; c < numericFields.length; c++) {
+        numericColumnValues.put(numericColumns.get(c), Arrays.copyOf(numericValues[c], rows));
+      }
+      return new EmbeddedTable(builder.build(), numericColumnValues);
+    }
+  }
+
+  /**
+   * @return whether a column of the type takes the value, as the COPY does
+   */
+  private static boolean fits(FieldType type, String value) {
+    try {
+      type.toDBValue(value);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param headerRow  the header of the CSV
+   * @param projection the (lower case) columns to import, null for every column
+   * @return the indexes of the projected fields, in header order
+   */
+  private static int[] getProjectedFields(List<String> headerRow, Collection<String> projection) {
+    List<Integer> fields = new ArrayList<>();
+    for (int i = 0; i < headerRow.size(); i++) {
+      if (projection == null || projection.contains(headerRow.get(i).toLowerCase().trim())) {
+        fields.add(i);
+      }
+    }
+    if (projection != null && fields.size() < new HashSet<>(projection).size()) {
+      Set<String> missing = new LinkedHashSet<>(projection);
+      headerRow.forEach(header -> missing.remove(header.toLowerCase().trim()));
+      throw new IllegalArgumentException(String.format("Columns %s are not in the CSV header", missing));
+    }
+    return fields.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static String[] project(String[] rowValues, int[] projectedFields) {
+    String[] projected = new String[projectedFields.length];
+    for (int i = 0; i < projectedFields.length; i++) {
+      projected[i] = projectedFields[i] < rowValues.length ? rowValues[projectedFields[i]] : null;
+    }
+    return projected;
+  }
+
+  /**
+   * parse the CSV and stream the projected fields of every row to the COPY, the unused fields are dropped on the client
+   * the fields are written back unquoted unless needed so empty fields are still loaded as NULL
+   *
+   * @param connection      the connection to copy on
+   * @param reader          the CSV records
+   * @param copyTableSql    the COPY of the projected columns
+   * @param projectedFields the indexes of the projected fields
+   * @param header          whether the first record is the header
+   * @return the number of rows copied
+   * @throws Exception
+   */
+  private static long copyProjected(Connection connection, Reader reader, String copyTableSql, int[] projectedFields, boolean header) throws Exception {
+    try (CSVReader csvReader = new CSVReader(reader)) {
+      if (header) {
+        csvReader.readNext();
+      }
+
+      CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
+      PGCopyOutputStream copyOutputStream = new PGCopyOutputStream(copyManager.copyIn(copyTableSql), COPY_BUFFER_SIZE);
+      CSVWriter csvWriter = new CSVWriter(new OutputStreamWriter(copyOutputStream, StandardCharsets.UTF_8),
+        CSVWriter.DEFAULT_SEPARATOR, CSVWriter.DEFAULT_QUOTE_CHARACTER, CSVWriter.DEFAULT_QUOTE_CHARACTER, CSVWriter.DEFAULT_LINE_END);
+      try {
+        String[] rowValues;
+        while ((rowValues = csvReader.readNext()) != null) {
+          csvWriter.writeNext(project(rowValues, projectedFields), false);
+        }
+        csvWriter.flush();
+        return copyOutputStream.endCopy();
+      } catch (Exception e) {
+        if (copyOutputStream.isActive()) {
+          copyOutputStream.cancelCopy();
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * parse the CSV and send the fields of every row converted to the column types in the binary COPY format
+   *
+   * @param connection   the connection to copy on
+   * @param reader       the CSV records
+   * @param copyTableSql the binary COPY of the columns
+   * @param columnTypes  the type of each column
+   * @param fields       the index of the CSV field of each column
+   * @param header       whether the first record is the header
+   * @return the number of rows copied
+   * @throws Exception
+   */
+  private static long copyBinary(Connection connection, Reader reader, String copyTableSql, FieldType[] columnTypes, int[] fields, boolean header) throws Exception {
+    try (CSVReader csvReader = new CSVReader(reader)) {
+      if (header) {
+        csvReader.readNext();
+      }
+
+      CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
+      BinaryCopyWriter binaryWriter = new BinaryCopyWriter(copyManager.copyIn(copyTableSql), columnTypes);
+      try {
+        String[] rowValues;
+        while ((rowValues = csvReader.readNext()) != null) {
+          binaryWriter.writeRow(rowValues, fields);
+        }
+        return binaryWriter.endCopy();
+      } catch (Exception e) {
+        binaryWriter.cancelCopy();
+        throw e;
+      }
+    }
+  }
+
+  static void dropTable(String tableName) throws Exception {
+    String dropTableSql = new StringTemplate("DROP TABLE IF EXISTS ${name}")
+      .put("name", SQLUtils.escapeIdentifier(tableName))
+      .build();
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement ps = connection.prepareStatement(dropTableSql)) {
+      ps.execute();
+    }
+  }
+
+  /**
+   * The format the rows are sent to the COPY in
+   * CSV - the (projected) CSV text, parsed and converted by the server
+   * BINARY - values converted to the column types on the client, copied as is by the server
+   * <p>
+   * both formats load an empty field as NULL and reject a blank or a literal null in a non text column,
+   * except that a file copied as is (CSV without a projection) keeps a quoted "" as an empty string,
+   * the parsed rows (projected CSV and BINARY) can not tell it from an empty field and load it as NULL
+   */
+  public enum CopyFormat {
+    CSV,
+    BINARY
+  }
+
   public enum FieldType {
     fieldTypeText,
+    fieldTypeSmallInt,
     fieldTypeInteger,
     fieldTypeBigInt,
     fieldTypeFloat,
+    fieldTypeBoolean,
     fieldTypeOID,
     fieldTypeDate,
     fieldTypePercentage;
 
+    /**
+     * @param left  a type, null when it has no value yet
+     * @param right a type, null when it has no value yet
+     * @return the narrowest type fitting the values of both types
+     */
+    public static FieldType widen(FieldType left, FieldType right) {
+      if (left == null || left == right) {
+        return right;
+      }
+      if (right == null) {
+        return left;
+      }
+      if (left.isInteger() && right.isInteger()) {
+        return left.ordinal() > right.ordinal() ? left : right;
+      }
+      if ((left.isInteger() || left == fieldTypeFloat) && (right.isInteger() || right == fieldTypeFloat)) {
+        return fieldTypeFloat;
+      }
+      return fieldTypeText;
+    }
+
+    /**
+     * @param value a CSV value of a column of this type
+     * @return the value as the database returns it from a column of this type, null for a missing (empty) value
+     * @throws NumberFormatException when the COPY would reject the value (i.e. a blank or a literal null in a non text column)
+     */
+    public String toDBValue(String value) {
+      if (value == null || value.isEmpty()) {
+        return null;
+      }
+      if (this == fieldTypeText) {
+        return value;
+      }
+      String trimmed = value.trim();
+      switch (this) {
+        case fieldTypeSmallInt:
+          return Short.toString(Short.parseShort(trimmed));
+        case fieldTypeInteger:
+          return Integer.toString(Integer.parseInt(trimmed));
+        case fieldTypeOID:
+        case fieldTypeBigInt:
+          return Long.toString(Long.parseLong(trimmed));
+        case fieldTypeFloat:
+          return toDBFloat(Double.parseDouble(trimmed));
+        case fieldTypeBoolean:
+          return BinaryCopyWriter.parseBoolean(trimmed) ? "t" : "f";
+        default:
+          return trimmed;
+      }
+    }
+
+    /**
+     * the shortest digits of the double, in exponent form below 1e-4 and from 1e15 on (i.e. 1.5e-05, 1e+15)
+     */
+    private static String toDBFloat(double value) {
+      if (value == 0) {
+        return 1 / value < 0 ? "-0" : "0";
+      }
+      BigDecimal decimal = new BigDecimal(Double.toString(value)).stripTrailingZeros();
+      int exponent = decimal.precision() - decimal.scale() - 1;
+      if (exponent >= -4 && exponent < 15) {
+        return decimal.toPlainString();
+      }
+      String digits = decimal.unscaledValue().abs().toString();
+      String mantissa = digits.length() == 1 ? digits : digits.charAt(0) + "." + digits.substring(1);
+      return String.format("%s%se%s%02d", value < 0 ? "-" : "", mantissa, exponent < 0 ? "-" : "+", Math.abs(exponent));
+    }
+
+    private boolean isInteger() {
+      return this == fieldTypeSmallInt || this == fieldTypeInteger || this == fieldTypeBigInt;
+    }
+
     public String toDBFieldType() {
       String dbFieldType;
       switch (this) {
-        case fieldTypeOID:
+        case fieldTypeSmallInt:
+          dbFieldType = "smallint";
+          break;
         case fieldTypeInteger:
-        case fieldTypePercentage:
+          dbFieldType = "integer";
+          break;
+        case fieldTypeOID:
         case fieldTypeBigInt:
+          dbFieldType = "bigint";
+          break;
         case fieldTypeFloat:
+          dbFieldType = "double precision";
+          break;
+        case fieldTypeBoolean:
+          dbFieldType = "boolean";
+          break;
+        case fieldTypePercentage:
           dbFieldType = "numeric(38,8)";
           break;
         case fieldTypeText:
@@ -162,5 +839,3 @@ public class CSVImporter {
   }
 
 }
-
-
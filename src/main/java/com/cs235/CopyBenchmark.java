@@ -0,0 +1,71 @@
+package com.cs235;
+
+import com.cs235.classifiers.PipelineContext;
+import com.cs235.database.ConnectionPool;
+import com.cs235.database.SQLUtils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collection;
+
+/**
+ * Compares the import of a CSV file over the text (CSV) COPY and the binary COPY
+ * every repetition imports the file into a new table with each format and drops the table again
+ */
+public class CopyBenchmark {
+
+  /**
+   * @param args [0] [1] [2] [3] [4] - PostgreSQL address | Input CSV dataset | (optional) repetitions, default 3 |
+   *             (optional) connections, default 1 | (optional) "all" to import every column instead of the pipeline columns
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    int connections = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+    if (repetitions < 1) {
+      throw new IllegalArgumentException("Repetitions must be at least 1");
+    }
+    if (connections < 1) {
+      throw new IllegalArgumentException("Connections must be at least 1");
+    }
+    Collection<String> projection = args.length > 4 && "all".equalsIgnoreCase(args[4]) ? null : PipelineContext.getImportColumns();
+
+    ConnectionPool connectionPool = ConnectionPool.initialize(String.format("jdbc:postgresql://%s", args[0]), Math.max(2, connections));
+    File file = new File(args[1]);
+
+    for (CSVImporter.CopyFormat format : CSVImporter.CopyFormat.values()) {
+      // warm up the JIT and the file cache
+      CSVImporter.dropTable(CSVImporter.importToDatabaseTable(file, CSVImporter.DEFAULT_SAMPLE_ROWS, projection, connections, format));
+    }
+
+    for (CSVImporter.CopyFormat format : CSVImporter.CopyFormat.values()) {
+      long best = Long.MAX_VALUE;
+      long total = 0;
+      long rows = 0;
+      for (int i = 0; i < repetitions; i++) {
+        Timers timer = Timers.start();
+        String tableName = CSVImporter.importToDatabaseTable(file, CSVImporter.DEFAULT_SAMPLE_ROWS, projection, connections, format);
+        long millis = timer.elapsedMillis();
+        best = Math.min(best, millis);
+        total += millis;
+        rows = countRows(tableName);
+        CSVImporter.dropTable(tableName);
+      }
+      System.out.println(String.format("%s COPY: %s rows, best %s ms, average %s ms, %.0f rows/s (best)",
+        format, rows, best, total / repetitions, best == 0 ? rows : rows * 1000.0 / best));
+    }
+
+    connectionPool.close();
+  }
+
+  private static long countRows(String tableName) throws Exception {
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement ps = connection.prepareStatement(String.format("SELECT COUNT(*) FROM %s", SQLUtils.escapeIdentifier(tableName)))) {
+      ResultSet rs = ps.executeQuery();
+      return rs.next() ? rs.getLong(1) : 0;
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.cs235;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies the content of an input file by its size, modification time and SHA-256 hash
+ * a file matches when its size is the same and either its modification time or (when it was touched) its hash is the same,
+ * so an unchanged file is recognized without reading it
+ */
+public final class FileFingerprint {
+
+  private static final long HASH_WINDOW_BYTES = 1L << 30;
+
+  public final long size;
+  public final long lastModified;
+  public final String hash;
+
+  public FileFingerprint(long size, long lastModified, String hash) {
+    this.size = size;
+    this.lastModified = lastModified;
+    this.hash = hash;
+  }
+
+  /**
+   * @param file the file
+   * @return the fingerprint of the file, hashing its whole content
+   * @throws IOException
+   */
+  public static FileFingerprint of(File file) throws IOException {
+    long lastModified = file.lastModified();
+    return new FileFingerprint(file.length(), lastModified, hash(file));
+  }
+
+  /**
+   * @param file the file
+   * @return whether the file still has the fingerprinted content
+   * @throws IOException
+   */
+  public boolean matches(File file) throws IOException {
+    if (!file.isFile() || file.length() != size) {
+      return false;
+    }
+    return file.lastModified() == lastModified || hash(file).equals(hash);
+  }
+
+  /**
+   * @param file the file
+   * @return the hex SHA-256 of the file, streamed through a memory map
+   * @throws IOException
+   */
+  public static String hash(File file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      for (long position = 0; position < size; position += HASH_WINDOW_BYTES) {
+        digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_WINDOW_BYTES, size - position)));
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s bytes, modified %s, sha-256 %s", size, lastModified, hash);
+  }
+
+}
@@ -0,0 +1,179 @@
+package com.cs235;
+
+import com.cs235.database.ConnectionPool;
+import com.cs235.database.SQLUtils;
+import com.cs235.database.StringTemplate;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Catalog of the imported dataset tables, keyed by the content hash of the source file and the shape of the import
+ * (the projected columns)
+ * <p>
+ * a table is found by the path, size and modification time of its source without reading the file, or else by the hash
+ * of the file (i.e. a touched or moved copy of the same content), the tables of older contents of the same path and the entries
+ * of dropped tables are garbage collected
+ */
+public final class ImportCatalog {
+
+  private static final String CATALOG_TABLE = "dataset_catalog";
+
+  private static final String CREATE_CATALOG = "CREATE TABLE IF NOT EXISTS ${catalog} (" +
+    "source_hash text NOT NULL, import_key text NOT NULL, table_name text NOT NULL, " +
+    "source_path text NOT NULL, source_size bigint NOT NULL, source_modified bigint NOT NULL, " +
+    "created timestamp NOT NULL DEFAULT now(), PRIMARY KEY (source_hash, import_key))";
+  private static final String TABLE_EXISTS = "to_regclass(quote_ident(table_name)) IS NOT NULL";
+
+  private ImportCatalog() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @param projection the (lower case) columns imported, null for every column
+   * @return the key of the import shape
+   */
+  public static String importKey(Collection<String> projection) {
+    return projection == null ? "*" : String.join(",", new TreeSet<>(projection));
+  }
+
+  public static void createIfMissing() throws Exception {
+    execute(new StringTemplate(CREATE_CATALOG).put("catalog", SQLUtils.escapeIdentifier(CATALOG_TABLE)).build());
+  }
+
+  /**
+   * @param file      the source file
+   * @param importKey the key of the import shape
+   * @return the table imported from the file as it is (same path, size and modification time), null when there is none
+   * @throws Exception
+   */
+  public static String findByFile(File file, String importKey) throws Exception {
+    String selectSql = new StringTemplate("SELECT table_name FROM ${catalog} WHERE source_path = ? AND source_size = ? " +
+      "AND source_modified = ? AND import_key = ? AND ${exists}")
+      .put("catalog", SQLUtils.escapeIdentifier(CATALOG_TABLE))
+      .put("exists", TABLE_EXISTS)
+      .build();
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement ps = connection.prepareStatement(selectSql)) {
+      ps.setString(1, file.getCanonicalPath());
+      ps.setLong(2, file.length());
+      ps.setLong(3, file.lastModified());
+      ps.setString(4, importKey);
+      ResultSet rs = ps.executeQuery();
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  /**
+   * find a table imported from the same content and point its entry at the file
+   *
+   * @param fingerprint the fingerprint of the file
+   * @param file        the source file
+   * @param importKey   the key of the import shape
+   * @return the table imported from the content, null when there is none
+   * @throws Exception
+   */
+  public static String findByHash(FileFingerprint fingerprint, File file, String importKey) throws Exception {
+    String updateSql = new StringTemplate("UPDATE ${catalog} SET source_path = ?, source_size = ?, source_modified = ? " +
+      "WHERE source_hash = ? AND import_key = ? AND ${exists} RETURNING table_name")
+      .put("catalog", SQLUtils.escapeIdentifier(CATALOG_TABLE))
+      .put("exists", TABLE_EXISTS)
+      .build();
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement ps = connection.prepareStatement(updateSql)) {
+      ps.setString(1, file.getCanonicalPath());
+      ps.setLong(2, fingerprint.size);
+      ps.setLong(3, fingerprint.lastModified);
+      ps.setString(4, fingerprint.hash);
+      ps.setString(5, importKey);
+      ResultSet rs = ps.executeQuery();
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  /**
+   * add the imported table to the catalog, unless a concurrent import of the same content was added first
+   *
+   * @param fingerprint the fingerprint of the file when it was imported
+   * @param file        the source file
+   * @param importKey   the key of the import shape
+   * @param tableName   the imported table
+   * @return the cataloged table, the concurrent import's table when it was added first
+   * @throws Exception
+   */
+  public static String register(FileFingerprint fingerprint, File file, String importKey, String tableName) throws Exception {
+    String insertSql = new StringTemplate("INSERT INTO ${catalog} AS catalog (source_hash, import_key, table_name, source_path, source_size, source_modified) " +
+      "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (source_hash, import_key) DO UPDATE SET table_name = EXCLUDED.table_name, " +
+      "source_path = EXCLUDED.source_path, source_size = EXCLUDED.source_size, source_modified = EXCLUDED.source_modified, created = now() " +
+      "WHERE to_regclass(quote_ident(catalog.table_name)) IS NULL RETURNING table_name")
+      .put("catalog", SQLUtils.escapeIdentifier(CATALOG_TABLE))
+      .build();
+    String selectSql = new StringTemplate("SELECT table_name FROM ${catalog} WHERE source_hash = ? AND import_key = ?")
+      .put("catalog", SQLUtils.escapeIdentifier(CATALOG_TABLE))
+      .build();
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement insertPs = connection.prepareStatement(insertSql);
+         PreparedStatement selectPs = connection.prepareStatement(selectSql)) {
+      insertPs.setString(1, fingerprint.hash);
+      insertPs.setString(2, importKey);
+      insertPs.setString(3, tableName);
+      insertPs.setString(4, file.getCanonicalPath());
+      insertPs.setLong(5, fingerprint.size);
+      insertPs.setLong(6, fingerprint.lastModified);
+      if (insertPs.executeQuery().next()) {
+        return tableName;
+      }
+      selectPs.setString(1, fingerprint.hash);
+      selectPs.setString(2, importKey);
+      ResultSet rs = selectPs.executeQuery();
+      rs.next();
+      return rs.getString(1);
+    }
+  }
+
+  /**
+   * drop the tables imported from other contents of the file (the file has changed since) and remove their entries,
+   * and remove the entries of tables dropped outside of the catalog
+   *
+   * @param file the source file
+   * @param hash the hash of the current content of the file
+   * @return the number of tables dropped, not counting the entries of tables that were already gone
+   * @throws Exception
+   */
+  public static int collectGarbage(File file, String hash) throws Exception {
+    String deleteSql = new StringTemplate("DELETE FROM ${catalog} WHERE (source_path = ? AND source_hash <> ?) OR NOT ${exists} RETURNING table_name, ${exists}")
+      .put("catalog", SQLUtils.escapeIdentifier(CATALOG_TABLE))
+      .put("exists", TABLE_EXISTS)
+      .build();
+    List<String> staleTables = new ArrayList<>();
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement ps = connection.prepareStatement(deleteSql)) {
+      ps.setString(1, file.getCanonicalPath());
+      ps.setString(2, hash);
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        if (rs.getBoolean(2)) {
+          staleTables.add(rs.getString(1));
+        }
+      }
+    }
+    for (String staleTable : staleTables) {
+      CSVImporter.dropTable(staleTable);
+    }
+    return staleTables.size();
+  }
+
+  private static void execute(String sql) throws Exception {
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement ps = connection.prepareStatement(sql)) {
+      ps.execute();
+    }
+  }
+
+}
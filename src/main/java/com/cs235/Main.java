@@ -1,62 +1,113 @@
 package com.cs235;
 
 import com.cs235.classifiers.AssociationRules;
+import com.cs235.classifiers.CrossValidation;
 import com.cs235.classifiers.DecisionTree;
 import com.cs235.classifiers.GridBasedClustering;
 import com.cs235.classifiers.NaiveBayesClassifier;
+import com.cs235.classifiers.PipelineContext;
+import com.cs235.database.ConnectionPool;
+import com.cs235.dataset.EmbeddedTable;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 public class Main {
 
+  private static final int POOL_SIZE = 8;
+  private static final String EMBEDDED = "embedded";
+  private static final int STAGE_PARALLELISM = 4;
+
   public static String POSTGRES_URL;
 
   /**
    * Import the dataset into the database from a CSV file
    * Execute the clustering, and the three classifiers: Naive Bayes, Apriori Rule Association, Information Gain Decision Tree
+   * (after the import, split and load these run concurrently as independent stages of a task graph)
    * Save the results to an our file and a cluster TSV file
+   * (cross validation of the classifiers only runs when asked for, into its own file)
    *
-   * @param args [0] [1] - PostgreSQL address | Input CSV dataset
+   * @param args [0] [1] [2] - PostgreSQL address, or "embedded" to run in memory without a database | Input CSV dataset | (optional) association rule mining strategy | (optional) split seed
+   *             | (optional) number of cross validation folds
    * @throws Exception
    */
   public static void main(String[] args) throws Exception {
 
     System.out.println("Starting data mining:");
 
-    POSTGRES_URL = String.format("jdbc:postgresql://%s", args[0]);
+    boolean embedded = EMBEDDED.equalsIgnoreCase(args[0]);
+    ConnectionPool connectionPool = null;
+    if (!embedded) {
+      POSTGRES_URL = String.format("jdbc:postgresql://%s", args[0]);
+      connectionPool = ConnectionPool.initialize(POSTGRES_URL, POOL_SIZE);
+    }
 
     File file = new File(args[1]);
+    AssociationRules.MiningStrategy miningStrategy = args.length > 2
+      ? AssociationRules.MiningStrategy.valueOf(args[2].toUpperCase())
+      : AssociationRules.MiningStrategy.APRIORI;
+    Long splitSeed = args.length > 3 ? Long.valueOf(args[3]) : null;
+    Integer crossValidationFolds = args.length > 4 ? Integer.valueOf(args[4]) : null;
+
+    Timers timer = Timers.start();
+    try (TaskGraph graph = new TaskGraph(STAGE_PARALLELISM)) {
+      CompletableFuture<PipelineContext> contextStage;
+      if (embedded) {
+        File snapshot = new File("out", file.getName() + ".snapshot");
+        long seed = splitSeed == null ? new Random().nextLong() : splitSeed;
+        CompletableFuture<EmbeddedTable> imported = graph.submit("Import", () -> PipelineContext.importEmbedded(file, snapshot));
+        contextStage = graph.submit("Split and load", () -> PipelineContext.createEmbedded(imported.join(), seed), imported);
+      } else {
+        CompletableFuture<String> imported = graph.submit("Import", () -> CSVImporter.importToCatalogedTable(file, CSVImporter.DEFAULT_SAMPLE_ROWS,
+          PipelineContext.getImportColumns(), ConnectionPool.get().getMaxSize()));
+        contextStage = graph.submit("Split and load", () -> splitSeed == null
+          ? PipelineContext.create(imported.join())
+          : PipelineContext.create(imported.join(), splitSeed), imported);
+      }
+
+      // the analyses only share the read-only context, the report sections are written in this order once all are done
+      graph.submit("Grid Based Clustering", () -> new GridBasedClustering(contextStage.join()).execute(), contextStage);
+      List<CompletableFuture<String>> sections = Arrays.asList(
+        graph.submit("Naive Bayes Classifier", () -> new NaiveBayesClassifier(contextStage.join()).execute(), contextStage),
+        graph.submit("Decision Tree Classifier", () -> new DecisionTree(contextStage.join()).execute(), contextStage),
+        graph.submit("Apriori Association Rule Mining", () -> new AssociationRules(contextStage.join(), miningStrategy).execute(), contextStage));
+      graph.submit("Report", () -> {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter("out/out.txt"))) {
+          for (CompletableFuture<String> section : sections) {
+            writer.write(section.join());
+          }
+        }
+        return null;
+      }, sections.toArray(new CompletableFuture[0]));
+      if (crossValidationFolds != null) {
+        graph.submit("Cross Validation", () -> {
+          String evaluation = new CrossValidation(contextStage.join(), crossValidationFolds, splitSeed == null ? System.nanoTime() : splitSeed).execute();
+          try (BufferedWriter writer = new BufferedWriter(new FileWriter("out/cross_validation.txt"))) {
+            writer.write(evaluation);
+          }
+          return null;
+        }, contextStage);
+      }
+
+      try {
+        graph.await();
+      } finally {
+        // the intermediate tables of the run are dropped when the context is closed, also when a stage failed
+        if (contextStage.isDone() && !contextStage.isCompletedExceptionally()) {
+          contextStage.join().close();
+        }
+      }
+      System.out.println(String.format("Stages: %s, %s ms in total", graph.getTimings(), timer.elapsedMillis()));
+    }
 
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter("out/out.txt"))) {
-
-      Timers timer = Timers.start();
-      String tableName = CSVImporter.importToDatabaseTable(file);
-
-      timer = Timers.start();
-      System.out.println("Grid Based Clustering started...");
-      GridBasedClustering gridBasedClustering = new GridBasedClustering(tableName);
-      gridBasedClustering.execute();
-      System.out.println(String.format(" finished (%s ms)...", timer.elapsedMillis()));
-
-      timer = Timers.start();
-      System.out.println("Naive Bayes Classifier started...");
-      NaiveBayesClassifier naiveBayesClassifier = new NaiveBayesClassifier(tableName);
-      writer.write(naiveBayesClassifier.execute());
-      System.out.println(String.format(" finished (%s ms)...", timer.elapsedMillis()));
-
-      timer = Timers.start();
-      System.out.println("Decision Tree Classifier started...");
-      DecisionTree decisionTree = new DecisionTree(tableName);
-      writer.write(decisionTree.execute());
-      System.out.println(String.format(" finished (%s ms)...", timer.elapsedMillis()));
-
-      timer = Timers.start();
-      System.out.println("Apriori Association Rule Mining started...");
-      AssociationRules associationRules = new AssociationRules(tableName);
-      writer.write(associationRules.execute());
-      System.out.println(String.format(" finished (%s ms)...", timer.elapsedMillis()));
+    if (connectionPool != null) {
+      System.out.println(String.format("Connection pool: %s", connectionPool.getStatistics()));
+      connectionPool.close();
     }
 
     System.out.println("---------- PROCESS COMPLETED ----------");
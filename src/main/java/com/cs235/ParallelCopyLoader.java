@@ -0,0 +1,263 @@
+package com.cs235;
+
+import com.cs235.database.ConnectionPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a CSV file into a table over concurrent COPY streams
+ * the file is memory mapped and cut into chunks at record boundaries, every chunk is streamed into the table
+ * by its own COPY on a pooled connection
+ * <p>
+ * a record boundary is a newline outside of a quoted field, so quoted newlines stay inside their record,
+ * the quote state is only known from the start of the file, so the boundaries are found in one sequential scan of the mapped bytes
+ * (the quoted fields use the importer's CSV dialect: '"' quotes, '\' escapes inside quotes)
+ * <p>
+ * every chunk is committed by its own COPY, a failed load leaves the rows of the finished chunks in the table
+ * <p>
+ * the same chunks are read without a database by {@link #read}, i.e. to scan every record before the load
+ */
+public class ParallelCopyLoader {
+
+  private static final byte QUOTE = '"';
+  private static final byte ESCAPE = '\\';
+  private static final byte NEWLINE = '\n';
+
+  private static final int CHUNKS_PER_CONNECTION = 4;
+  private static final long MIN_CHUNK_BYTES = 1L << 20;
+  private static final long MAX_CHUNK_BYTES = 1L << 30;
+  private static final long SCAN_WINDOW_BYTES = 1L << 30;
+
+  private final int connections;
+
+  /**
+   * @param connections the number of chunks copied at the same time (each on its own pooled connection)
+   */
+  public ParallelCopyLoader(int connections) {
+    if (connections < 1) {
+      throw new IllegalArgumentException("Connections must be at least 1");
+    }
+    this.connections = connections;
+  }
+
+  /**
+   * Copies the records of one chunk into the table
+   */
+  public interface ChunkCopier {
+    /**
+     * @param connection the connection to copy on
+     * @param chunk      the bytes of whole records of the file (no header)
+     * @return the number of rows copied
+     * @throws Exception
+     */
+    long copy(Connection connection, InputStream chunk) throws Exception;
+  }
+
+  /**
+   * Reads the records of one chunk
+   */
+  public interface ChunkReader<T> {
+    /**
+     * @param chunk the bytes of whole records of the file (no header)
+     * @return the result of the chunk
+     * @throws Exception
+     */
+    T read(InputStream chunk) throws Exception;
+  }
+
+  /**
+   * @param file       the input CSV file
+   * @param skipHeader whether the first record is a header
+   * @param copier     copies each chunk
+   * @return the number of rows and the throughput of the load
+   * @throws Exception
+   */
+  public LoadStatistics load(File file, boolean skipHeader, ChunkCopier copier) throws Exception {
+    Timers timer = Timers.start();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      List<long[]> chunks = split(channel, skipHeader, connections * CHUNKS_PER_CONNECTION);
+
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, Math.max(1, chunks.size())));
+      List<Future<Long>> tasks = new ArrayList<>();
+      try {
+        for (long[] chunk : chunks) {
+          tasks.add(executor.submit(() -> copyChunk(channel, chunk[0], chunk[1], copier)));
+        }
+        long rows = 0;
+        for (Future<Long> task : tasks) {
+          rows += task.get();
+        }
+        return new LoadStatistics(rows, chunks.size(), connections, timer.elapsedMillis());
+      } catch (ExecutionException e) {
+        tasks.forEach(task -> task.cancel(true));
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * read the chunks of the file concurrently, one per available processor at a time
+   *
+   * @param file       the input CSV file
+   * @param skipHeader whether the first record is a header
+   * @param reader     reads each chunk
+   * @return the result of every chunk, in file order
+   * @throws Exception
+   */
+  public static <T> List<T> read(File file, boolean skipHeader, ChunkReader<T> reader) throws Exception {
+    int threads = Runtime.getRuntime().availableProcessors();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      List<long[]> chunks = split(channel, skipHeader, threads * CHUNKS_PER_CONNECTION);
+
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, chunks.size())));
+      List<Future<T>> tasks = new ArrayList<>();
+      try {
+        for (long[] chunk : chunks) {
+          tasks.add(executor.submit(() -> reader.read(new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0])))));
+        }
+        List<T> results = new ArrayList<>();
+        for (Future<T> task : tasks) {
+          results.add(task.get());
+        }
+        return results;
+      } catch (ExecutionException e) {
+        tasks.forEach(task -> task.cancel(true));
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  private static long copyChunk(FileChannel channel, long start, long end, ChunkCopier copier) throws Exception {
+    ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    try (Connection connection = ConnectionPool.getConnection()) {
+      return copier.copy(connection, new ByteBufferInputStream(chunk));
+    }
+  }
+
+  /**
+   * cut the file into chunks of about size / parts bytes, ending on record boundaries
+   *
+   * @param channel    the file
+   * @param skipHeader whether the first record is a header, left out of the chunks
+   * @param parts      the number of chunks aimed at
+   * @return the [start, end) byte offsets of every chunk
+   * @throws IOException
+   */
+  private static List<long[]> split(FileChannel channel, boolean skipHeader, int parts) throws IOException {
+    long size = channel.size();
+    long targetBytes = Math.min(MAX_CHUNK_BYTES, Math.max(MIN_CHUNK_BYTES, size / parts));
+
+    List<long[]> chunks = new ArrayList<>();
+    long start = 0;
+    boolean header = skipHeader;
+    boolean quoted = false;
+    boolean escaped = false;
+    for (long windowStart = 0; windowStart < size; windowStart += SCAN_WINDOW_BYTES) {
+      ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(SCAN_WINDOW_BYTES, size - windowStart));
+      int limit = window.limit();
+      for (int i = 0; i < limit; i++) {
+        byte b = window.get(i);
+        if (escaped) {
+          escaped = false;
+        } else if (quoted && b == ESCAPE) {
+          escaped = true;
+        } else if (b == QUOTE) {
+          quoted = !quoted;
+        } else if (b == NEWLINE && !quoted) {
+          long position = windowStart + i + 1;
+          if (header) {
+            header = false;
+            start = position;
+          } else if (position - start >= targetBytes) {
+            chunks.add(new long[]{start, position});
+            start = position;
+          }
+        }
+      }
+    }
+    if (!header && start < size) {
+      chunks.add(new long[]{start, size});
+    }
+
+    for (long[] chunk : chunks) {
+      if (chunk[1] - chunk[0] > Integer.MAX_VALUE) {
+        throw new IOException(String.format("Record at byte %s does not end within %s bytes", chunk[0], Integer.MAX_VALUE));
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * The rows and throughput of a load
+   */
+  public static class LoadStatistics {
+    public final long rows;
+    public final int chunks;
+    public final int connections;
+    public final long millis;
+
+    private LoadStatistics(long rows, int chunks, int connections, long millis) {
+      this.rows = rows;
+      this.chunks = chunks;
+      this.connections = connections;
+      this.millis = millis;
+    }
+
+    public double getRowsPerSecond() {
+      return millis == 0 ? rows : rows * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s rows in %s chunks over %s connections, %s ms (%.0f rows/s)", rows, chunks, connections, millis, getRowsPerSecond());
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+}
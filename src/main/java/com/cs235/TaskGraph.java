@@ -0,0 +1,96 @@
+package com.cs235;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A small graph of pipeline stages run on a bounded executor
+ * a stage starts as soon as every stage it depends on has finished, so independent stages run at the same time,
+ * each stage is timed on its own and a stage whose dependency failed is not run
+ */
+public class TaskGraph implements AutoCloseable {
+
+  private final ExecutorService executor;
+  private final List<CompletableFuture<?>> stages = new ArrayList<>();
+  private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<>());
+
+  /**
+   * @param parallelism the number of stages run at the same time
+   */
+  public TaskGraph(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    executor = Executors.newFixedThreadPool(parallelism);
+  }
+
+  /**
+   * @param name         the name of the stage, for the progress and timings
+   * @param stage        the work of the stage, the results of its dependencies are available to it through join()
+   * @param dependencies the stages to finish first
+   * @return the result of the stage
+   */
+  public synchronized <T> CompletableFuture<T> submit(String name, Callable<T> stage, CompletableFuture<?>... dependencies) {
+    CompletableFuture<T> future = CompletableFuture.allOf(dependencies).thenApplyAsync(ignored -> run(name, stage), executor);
+    stages.add(future);
+    return future;
+  }
+
+  private <T> T run(String name, Callable<T> stage) {
+    Timers timer = Timers.start();
+    System.out.println(String.format("%s started...", name));
+    try {
+      T result = stage.call();
+      timings.put(name, timer.elapsedMillis());
+      System.out.println(String.format(" %s finished (%s ms)...", name, timer.elapsedMillis()));
+      return result;
+    } catch (Exception e) {
+      System.out.println(String.format(" %s failed (%s ms)...", name, timer.elapsedMillis()));
+      throw new CompletionException(e);
+    }
+  }
+
+  /**
+   * wait for every stage to end
+   *
+   * @throws Exception the failure of the first failed stage, in submission order
+   */
+  public void await() throws Exception {
+    List<CompletableFuture<?>> submitted;
+    synchronized (this) {
+      submitted = new ArrayList<>(stages);
+    }
+    for (CompletableFuture<?> stage : submitted) {
+      try {
+        stage.join();
+      } catch (CompletionException e) {
+        // the later stages still finish, so nothing runs on after the caller moves on
+        CompletableFuture.allOf(submitted.toArray(new CompletableFuture[0])).handle((result, failure) -> null).join();
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+    }
+  }
+
+  /**
+   * @return the milliseconds of every finished stage, in the order they finished
+   */
+  public Map<String, Long> getTimings() {
+    synchronized (timings) {
+      return new LinkedHashMap<>(timings);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+}
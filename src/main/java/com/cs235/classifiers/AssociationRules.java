@@ -2,8 +2,10 @@ package com.cs235.classifiers;
 
 import com.cs235.Attribute;
 import com.cs235.Features;
+import com.cs235.dataset.EncodedDataset;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 public class AssociationRules extends Classifier {
@@ -11,64 +13,31 @@ public class AssociationRules extends Classifier {
   private static final double minSupport = 0.25;
   private static final double minConfidence = 0.35;
 
-  public AssociationRules(String tableName) {
-    super(tableName);
+  private final MiningStrategy strategy;
+  private final int parallelism;
+
+  public AssociationRules(PipelineContext context) {
+    this(context, MiningStrategy.APRIORI);
+  }
+
+  public AssociationRules(PipelineContext context, MiningStrategy strategy) {
+    this(context, strategy, Runtime.getRuntime().availableProcessors());
   }
 
   /**
-   * for the itemsets, generate all the new possible itemsets by joining
-   * this is a join where only the last value must be from a different feature
-   * not from the same category column but the sublist match
-   * [a.1, b.1] , [a.1, c.1] -> [a.1, b.1, c.1] (GOOD) (b & c different category)
-   * [a.1, b.1] , [a.1, b.2] !-> [a.1, b.1, b.1] (BAD) (b category covered twice)
-   *
-   * @param itemsets
-   * @param depth
-   * @return
+   * @param context     the shared datasets
+   * @param strategy    how the frequent itemsets are counted
+   * @param parallelism the number of threads counting the Apriori candidates (1 counts on a single thread)
    */
-  public static List<List<Attribute>> generateItemsets(List<List<Attribute>> itemsets, int depth) {
-    List<List<Attribute>> resultItemset = new ArrayList<>();
-
-    if (depth == -1) {
-      for (int i = 0; i < itemsets.size() - 1; i++) {
-        for (int j = i + 1; j < itemsets.size(); j++) {
-          // if not from the same category column
-          Attribute left = itemsets.get(i).get(0);
-          Attribute right = itemsets.get(j).get(0);
-          if (!left.feature.equals(right.feature)) {
-            List<Attribute> combined = new ArrayList<>();
-            combined.add(left);
-            combined.add(right);
-            resultItemset.add(combined);
-          }
-        }
-      }
-    } else {
-      for (int i = 0; i < itemsets.size() - 1; i++) {
-        for (int j = i + 1; j < itemsets.size(); j++) {
-
-          List<Attribute> left = itemsets.get(i).subList(0, depth + 1);
-          Attribute leftTail = itemsets.get(i).get(depth + 1);
-
-          List<Attribute> right = itemsets.get(j).subList(0, depth + 1);
-          Attribute rightTail = itemsets.get(j).get(depth + 1);
-
-          // if not from the same category column but the sublist match
-          // i.e. [a.1, b.1] , [a.1, c.1] -> [a.1, b.1, c.1] but [a.1, b.1] , [a.1, b.2] !-> [a.1, b.1, b.1]  (b category covered twice)
-          if (left.containsAll(right) && !leftTail.feature.equals(rightTail.feature)) {
-            List<Attribute> combined = new ArrayList<>();
-            combined.addAll(itemsets.get(i));
-            combined.add(rightTail);
-            resultItemset.add(combined);
-          }
-        }
-      }
+  public AssociationRules(PipelineContext context, MiningStrategy strategy, int parallelism) {
+    super(context);
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
     }
-
-    return resultItemset;
+    this.strategy = strategy;
+    this.parallelism = parallelism;
   }
 
-
   /**
    * Create all itemsets of size 1 (all distinct attribute values for each column)
    * determine the support for each of the values
@@ -78,102 +47,100 @@ public class AssociationRules extends Classifier {
    * can't create an itemset within the same attribute column)
    * <p>
    * continue this process until the frequent itemset no longer exists in the data
+   * (the ECLAT strategy counts the same itemsets with tidlist intersections, see EclatMiner,
+   * the FP_GROWTH strategy mines them from a prefix tree, see FPGrowthMiner)
    *
-   * @throws Exception
+   * @param trainingData the encoded training dataset
+   * @return mapping of every frequent itemset to its support, every subset of a frequent itemset is also in the mapping
    */
-  private Map<List<Attribute>, Double> train(List<List<Attribute>> actualItemsets) throws Exception {
-
-    int tableTotal = getTotalCount(trainingDataTable);
-
-    List<Features> completeItemset = new ArrayList<>();
-    completeItemset.addAll(allAttributes);
+  private Map<List<Attribute>, Double> train(EncodedDataset trainingData) {
+
+    ItemCatalog catalog = new ItemCatalog(trainingData);
+    switch (strategy) {
+      case ECLAT:
+        return new EclatMiner(catalog, minSupport, allAttributes.size()).mine();
+      case FP_GROWTH:
+        return new FPGrowthMiner(catalog, minSupport).mine();
+      default:
+        break;
+    }
 
-    List<List<Attribute>> candidateItemsets = new ArrayList<>();
-    Map<List<Attribute>, Double> candidateItemsetFrequency = new LinkedHashMap<>();
+    int tableTotal = trainingData.getRowCount();
 
     // generate the initial support for C1
-    for (Features attribute : allAttributes) {
-      Map<String, Double> attributeValueProbablities = getAttributeValProbabilities(trainingDataTable, attribute.getLabel(), tableTotal);
-
-      for (String val : attributeValueProbablities.keySet()) {
-        List<Attribute> itemset = Collections.singletonList(new Attribute(attribute, val));
-        candidateItemsets.add(itemset);
-        candidateItemsetFrequency.put(itemset, attributeValueProbablities.get(val));
+    int[] itemCounts = catalog.countItems();
+    CandidateTrie frequentItemsets = new CandidateTrie(1);
+    Map<List<Attribute>, Double> resultItemset = new LinkedHashMap<>();
+    for (int item = 0; item < catalog.size(); item++) {
+      // remove infrequent itemsets that are less than the minimum support
+      if (itemCounts[item] > 0 && (double) itemCounts[item] / tableTotal >= minSupport) {
+        frequentItemsets.add(new int[]{item});
+        resultItemset.put(catalog.toAttributes(new int[]{item}), (double) itemCounts[item] / tableTotal);
       }
     }
 
-    int depth = -1;
-    Map<List<Attribute>, Double> resultItemset = new LinkedHashMap<>();
-
-    // remove infrequent itemsets that are less than the minimum support
-    Map<List<Attribute>, Double> checkFrequency = candidateItemsetFrequency;
-    List<List<Attribute>> frequentItemsets = candidateItemsets.stream().filter(i -> checkFrequency.containsKey(i) && checkFrequency.get(i) >= minSupport).collect(Collectors.toList());
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    ParallelSupportCounter counter = new ParallelSupportCounter(catalog, pool);
 
     // execute algorithm, generating permutations of frequent itemsets
-    while (!candidateItemsets.isEmpty() && depth + 2 != allAttributes.size() && !frequentItemsets.isEmpty()) {
-
-      // generate all combinations of valid itemsets from remaining
-      List<List<Attribute>> generatedItemset = generateItemsets(frequentItemsets, depth);
-      candidateItemsets = generatedItemset.stream().map(l -> l.stream().map(Attribute::copy).collect(Collectors.toList())).collect(Collectors.toList());
-      candidateItemsetFrequency = new LinkedHashMap<>();
-      for (List<Attribute> itemset : candidateItemsets) {
-        int freq = actualItemsets.stream().filter(record -> itemset.stream().allMatch(record::contains)).collect(Collectors.toList()).size();
-        if (freq > 0) {
-          candidateItemsetFrequency.put(itemset, (double) freq / tableTotal);
-        }
-      }
-
-      // remove infrequent itemsets that are less than the minimum support
-      Map<List<Attribute>, Double> checkFrequency2 = candidateItemsetFrequency;
-      frequentItemsets = candidateItemsets.stream().filter(i -> checkFrequency2.containsKey(i) && checkFrequency2.get(i) >= minSupport).collect(Collectors.toList());
-
-      if (!frequentItemsets.isEmpty()) {
-        for (Map.Entry<List<Attribute>, Double> entry : candidateItemsetFrequency.entrySet()) {
-          if (!resultItemset.containsKey(entry.getKey())) {
-            resultItemset.put(entry.getKey(), entry.getValue());
+    try {
+      for (int size = 2; size <= allAttributes.size() && frequentItemsets.size() > 0; size++) {
+
+        // generate all combinations of valid itemsets from remaining, without those having an infrequent subset
+        CandidateTrie candidateItemsets = frequentItemsets.generateCandidates(catalog);
+        int[] candidateCounts = counter.count(candidateItemsets);
+
+        // remove infrequent itemsets that are less than the minimum support
+        frequentItemsets = new CandidateTrie(size);
+        for (int i = 0; i < candidateItemsets.size(); i++) {
+          if (candidateCounts[i] > 0 && (double) candidateCounts[i] / tableTotal >= minSupport) {
+            int[] itemset = candidateItemsets.getItemsets().get(i);
+            frequentItemsets.add(itemset);
+            resultItemset.put(catalog.toAttributes(itemset), (double) candidateCounts[i] / tableTotal);
           }
         }
       }
-
-      depth++;
+    } finally {
+      pool.shutdown();
     }
 
     return resultItemset;
   }
 
   /**
-   * for all subsets of the frequent itemsets, create an association rule and determine the support and confidence of the rules
+   * for every frequent itemset containing a Severity value, create the association rule with the Severity value on the right
+   * and determine the support and confidence of the rule
+   * the frequent itemsets are downward closed, so the support of the left side is looked up instead of counted
    *
-   * @param frequentItemsets
+   * @param frequentItemsets mapping of every frequent itemset to its support
    * @return
    */
-  public Map<Map<List<Attribute>, List<Attribute>>, RuleEvaluation> generateAssociationRules(List<List<Attribute>> actualItemsets, Map<List<Attribute>, Double> frequentItemsets) {
+  public Map<Map<List<Attribute>, List<Attribute>>, RuleEvaluation> generateAssociationRules(Map<List<Attribute>, Double> frequentItemsets) {
     Map<Map<List<Attribute>, List<Attribute>>, RuleEvaluation> associationRules = new LinkedHashMap<>();
 
-    // split the array into two sub-arrays of all variations
-    // only keep if the right array is a singular array of the Severity value
-    for (List<Attribute> itemset : frequentItemsets.keySet()) {
-      boolean[] flags = new boolean[itemset.size()];
-      for (int i = 0; i != itemset.size(); ) {
-        List<Attribute> a = new ArrayList<>(), b = new ArrayList<>();
-        for (int j = 0; j < itemset.size(); j++) {
-          if (flags[j]) a.add(itemset.get(j));
-          else b.add(itemset.get(j));
-        }
-        for (i = 0; i < itemset.size() && !(flags[i] = !flags[i]); i++) ;
-        if (!a.isEmpty() && !b.isEmpty()) {
-
-          int freqA = actualItemsets.stream().filter(record -> a.stream().allMatch(record::contains)).collect(Collectors.toList()).size();
-          int freqItemset = actualItemsets.stream().filter(record -> itemset.stream().allMatch(record::contains)).collect(Collectors.toList()).size();
-
-          Map<List<Attribute>, List<Attribute>> associationRule = new LinkedHashMap<>();
-          associationRule.put(a, b);
-          Double support = (double) freqItemset / actualItemsets.size();
-          Double confidence = (double) freqItemset / freqA;
-          if (b.size() == 1 && b.get(0).feature.equals(Features.SEVERITY_COLUMN) && confidence >= minConfidence) {
-            associationRules.put(associationRule, new RuleEvaluation(support, confidence));
-          }
-        }
+    // split the array into two sub-arrays, the right array is the singular array of the Severity value
+    for (Map.Entry<List<Attribute>, Double> itemset : frequentItemsets.entrySet()) {
+      List<Attribute> a = new ArrayList<>(), b = new ArrayList<>();
+      for (Attribute attribute : itemset.getKey()) {
+        if (attribute.feature.equals(Features.SEVERITY_COLUMN)) b.add(attribute);
+        else a.add(attribute);
+      }
+      if (a.isEmpty() || b.size() != 1) {
+        continue;
+      }
+
+      Double supportA = frequentItemsets.get(a);
+      if (supportA == null) {
+        throw new IllegalStateException(String.format("Frequent itemsets are not downward closed, missing %s", a.stream()
+          .map(attribute -> String.format("%s.%s", attribute.feature, attribute.value)).collect(Collectors.joining(","))));
+      }
+
+      Double support = itemset.getValue();
+      Double confidence = support / supportA;
+      if (confidence >= minConfidence) {
+        Map<List<Attribute>, List<Attribute>> associationRule = new LinkedHashMap<>();
+        associationRule.put(a, b);
+        associationRules.put(associationRule, new RuleEvaluation(support, confidence));
       }
     }
 
@@ -191,16 +158,15 @@ public class AssociationRules extends Classifier {
    */
   @Override
   public String execute() throws Exception {
-    createTrainingTestSets(tableName);
 
     // get all data
-    List<List<Attribute>> actualItemsets = loadItemsets(trainingDataTable);
+    EncodedDataset trainingData = context.getTrainingData();
 
     // find the frequent itemsets
-    Map<List<Attribute>, Double> frequentItemsets = train(actualItemsets);
+    Map<List<Attribute>, Double> frequentItemsets = train(trainingData);
 
     // generate the association rules
-    Map<Map<List<Attribute>, List<Attribute>>, RuleEvaluation> associationRules = generateAssociationRules(actualItemsets, frequentItemsets);
+    Map<Map<List<Attribute>, List<Attribute>>, RuleEvaluation> associationRules = generateAssociationRules(frequentItemsets);
 
     // print out the results
     StringBuilder out = new StringBuilder();
@@ -218,6 +184,18 @@ public class AssociationRules extends Classifier {
     return String.format("\n\n Association Apriori Frequent Itemsets:\n\n%s", out.toString());
   }
 
+  /**
+   * How the frequent itemsets are counted
+   * APRIORI - scan every transaction for every candidate itemset
+   * ECLAT - intersect the row id bitsets (tidlists) of the joined itemsets
+   * FP_GROWTH - mine the itemsets from an FP-tree built in two passes over the transactions
+   */
+  public enum MiningStrategy {
+    APRIORI,
+    ECLAT,
+    FP_GROWTH
+  }
+
   public class RuleEvaluation {
     public Double support;
     public Double confidence;
@@ -0,0 +1,161 @@
+package com.cs235.classifiers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix trie of itemsets that all have the same size (ascending item ids)
+ * the itemsets sharing a prefix are the children of the same node, so candidates are generated by joining siblings only
+ * and the support of every candidate is counted by walking each transaction through the trie once
+ */
+class CandidateTrie {
+
+  private final int depth;
+  private final Node root = new Node();
+  private final List<int[]> itemsets = new ArrayList<>();
+
+  CandidateTrie(int depth) {
+    this.depth = depth;
+  }
+
+  int size() {
+    return itemsets.size();
+  }
+
+  /**
+   * @return the itemsets in the order they were added, the index of an itemset is its count slot
+   */
+  List<int[]> getItemsets() {
+    return itemsets;
+  }
+
+  /**
+   * @param itemset ascending item ids, of the same size as the depth of the trie
+   */
+  void add(int[] itemset) {
+    Node node = root;
+    for (int item : itemset) {
+      int index = Arrays.binarySearch(node.items, item);
+      if (index < 0) {
+        index = -index - 1;
+        node.insert(index, item);
+      }
+      node = node.children[index];
+    }
+    node.itemset = itemsets.size();
+    itemsets.add(itemset);
+  }
+
+  /**
+   * @param itemset ascending item ids
+   * @param skip    the position of the itemset to leave out
+   * @return whether the itemset without the item at the skip position is in the trie
+   */
+  private boolean containsWithout(int[] itemset, int skip) {
+    Node node = root;
+    for (int i = 0; i < itemset.length; i++) {
+      if (i == skip) {
+        continue;
+      }
+      int index = Arrays.binarySearch(node.items, itemset[i]);
+      if (index < 0) {
+        return false;
+      }
+      node = node.children[index];
+    }
+    return true;
+  }
+
+  /**
+   * join every pair of itemsets sharing all but their last item, when the last items are from different category columns
+   * i.e. [a.1, b.1] , [a.1, c.1] -> [a.1, b.1, c.1] but [a.1, b.1] , [a.1, b.2] !-> [a.1, b.1, b.2]
+   * and prune the candidates having a subset (of the size of this trie) that is not in this trie (Apriori property)
+   *
+   * @param catalog the items of the dataset
+   * @return the trie of the candidates one item larger, in lexicographic order
+   */
+  CandidateTrie generateCandidates(ItemCatalog catalog) {
+    CandidateTrie candidates = new CandidateTrie(depth + 1);
+    generateCandidates(root, new int[depth + 1], 0, catalog, candidates);
+    return candidates;
+  }
+
+  private void generateCandidates(Node node, int[] prefix, int level, ItemCatalog catalog, CandidateTrie candidates) {
+    if (level < depth - 1) {
+      for (int i = 0; i < node.items.length; i++) {
+        prefix[level] = node.items[i];
+        generateCandidates(node.children[i], prefix, level + 1, catalog, candidates);
+      }
+      return;
+    }
+
+    // the children of the node are the last items of itemsets sharing the prefix
+    for (int i = 0; i < node.items.length - 1; i++) {
+      for (int j = i + 1; j < node.items.length; j++) {
+        if (catalog.column(node.items[i]) == catalog.column(node.items[j])) {
+          continue;
+        }
+        int[] candidate = Arrays.copyOf(prefix, depth + 1);
+        candidate[depth - 1] = node.items[i];
+        candidate[depth] = node.items[j];
+        if (allSubsetsFrequent(candidate)) {
+          candidates.add(candidate);
+        }
+      }
+    }
+  }
+
+  private boolean allSubsetsFrequent(int[] candidate) {
+    // leaving out one of the two last items gives the joined itemsets, which are in the trie already
+    for (int skip = 0; skip < candidate.length - 2; skip++) {
+      if (!containsWithout(candidate, skip)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * increment the count of every itemset of the trie contained in the transaction
+   *
+   * @param rowItems the items of the transaction (ascending item ids)
+   * @param counts   the count per itemset index
+   */
+  void count(int[] rowItems, int[] counts) {
+    count(root, rowItems, 0, depth, counts);
+  }
+
+  private static void count(Node node, int[] rowItems, int from, int remaining, int[] counts) {
+    if (remaining == 0) {
+      counts[node.itemset]++;
+      return;
+    }
+    for (int i = from; i <= rowItems.length - remaining; i++) {
+      int index = Arrays.binarySearch(node.items, rowItems[i]);
+      if (index >= 0) {
+        count(node.children[index], rowItems, i + 1, remaining - 1, counts);
+      }
+    }
+  }
+
+  private static final class Node {
+    private int[] items = new int[0];
+    private Node[] children = new Node[0];
+    private int itemset = -1;
+
+    private void insert(int index, int item) {
+      int[] newItems = new int[items.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(items, 0, newItems, 0, index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      newItems[index] = item;
+      newChildren[index] = new Node();
+      System.arraycopy(items, index, newItems, index + 1, items.length - index);
+      System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+      items = newItems;
+      children = newChildren;
+    }
+  }
+
+}
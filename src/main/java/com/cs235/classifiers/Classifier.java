@@ -1,12 +1,12 @@
 package com.cs235.classifiers;
 
-import com.cs235.Attribute;
 import com.cs235.Features;
-import com.cs235.Main;
+import com.cs235.database.ConnectionPool;
 import com.cs235.database.IdGenerator;
 import com.cs235.database.SQLUtils;
 import com.cs235.database.StringTemplate;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -37,75 +37,31 @@ public abstract class Classifier {
     add(Features.LIGHTING_COLUMN);
   }};
 
+  protected final PipelineContext context;
   protected final String tableName;
-  protected String trainingDataTable;
-  protected String testDataTable;
+  protected final String trainingDataTable;
+  protected final String testDataTable;
   protected StringTemplate getCount = new StringTemplate("SELECT COUNT(*) FROM ${tableName}");
 
-  public Classifier(String tableName) {
-    this.tableName = tableName;
+  public Classifier(PipelineContext context) {
+    this.context = context;
+    this.tableName = context.getTableName();
+    this.trainingDataTable = context.getTrainingDataTable();
+    this.testDataTable = context.getTestDataTable();
   }
 
   /**
-   * Get all records for the specific columns to determine all existing itemsets
+   * the severity level of a severity column value (i.e. "2", or "2.00000000" for a table imported as numeric)
    *
-   * @param tableName
-   * @return
-   * @throws Exception
+   * @param value the severity column value
+   * @return the severity level, 0 for a missing value
    */
-  protected static List<List<Attribute>> loadItemsets(String tableName) throws Exception {
-    List<List<Attribute>> dataset = new ArrayList<>();
-
-    String itemsetsSql = new StringTemplate("SELECT ${fields} FROM ${tableName}")
-      .put("fields", allAttributes.stream().map(Features::getLabel).map(SQLUtils::escapeIdentifier).collect(Collectors.joining(",")))
-      .put("tableName", SQLUtils.escapeIdentifier(tableName)).build();
-
-    try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
-         PreparedStatement ps = connection.prepareStatement(itemsetsSql)) {
-      ResultSet rs = ps.executeQuery();
-      while (rs.next()) {
-        List<Attribute> recordValues = new ArrayList<>();
-        for (Features attribute : allAttributes) {
-          recordValues.add(new Attribute(attribute, rs.getString(attribute.getLabel())));
-        }
-        dataset.add(recordValues);
-      }
-    }
-    return dataset;
+  protected static Integer severityLevel(String value) {
+    return value == null ? 0 : new BigDecimal(value.trim()).intValue();
   }
 
   public abstract String execute() throws Exception;
 
-  /**
-   * Create two separate tables randomly with 80% of the data in the training dataset and 20% in the test dataset
-   *
-   * @param tableName the input dataset table to select from
-   * @throws Exception
-   */
-  protected void createTrainingTestSets(String tableName) throws Exception {
-
-    trainingDataTable = IdGenerator.generate("training_");
-    String trainingSql = new StringTemplate("CREATE TABLE ${newTable} AS SELECT * FROM ${table} WHERE (random() <= 0.80)")
-      .put("newTable", SQLUtils.escapeIdentifier(trainingDataTable))
-      .put("table", SQLUtils.escapeIdentifier(tableName))
-      .build();
-
-    testDataTable = IdGenerator.generate("test_");
-    String testSql = new StringTemplate("CREATE TABLE ${newTable} AS SELECT * FROM ${table} WHERE ${oid} NOT IN (SELECT ${oid} FROM ${trainingTable})")
-      .put("newTable", SQLUtils.escapeIdentifier(testDataTable))
-      .put("table", SQLUtils.escapeIdentifier(tableName))
-      .put("oid", SQLUtils.escapeIdentifier(Features.OID_COLUMN.getLabel()))
-      .put("trainingTable", SQLUtils.escapeIdentifier(trainingDataTable))
-      .build();
-
-    try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
-         PreparedStatement trainPs = connection.prepareStatement(trainingSql);
-         PreparedStatement testPs = connection.prepareStatement(testSql)) {
-      trainPs.execute();
-      testPs.execute();
-    }
-  }
-
   /**
    * get the total count of records for the given dataset table
    *
@@ -115,7 +71,7 @@ public abstract class Classifier {
    */
   protected int getTotalCount(String table) throws Exception {
     String countSql = getCount.put("tableName", SQLUtils.escapeIdentifier(table)).build();
-    try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
+    try (Connection connection = ConnectionPool.getConnection();
          PreparedStatement ps = connection.prepareStatement(countSql)) {
       ResultSet rs = ps.executeQuery();
       if (rs.next()) {
@@ -140,7 +96,7 @@ public abstract class Classifier {
       .put("column", SQLUtils.escapeIdentifier(column))
       .put("tableName", SQLUtils.escapeIdentifier(table)).build();
 
-    try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
+    try (Connection connection = ConnectionPool.getConnection();
          PreparedStatement ps = connection.prepareStatement(distinctCountSql)) {
       ResultSet rs = ps.executeQuery();
       while (rs.next()) {
@@ -153,7 +109,8 @@ public abstract class Classifier {
   }
 
   /**
-   * Separate the input dataset into multiple tables for each of the severity values that exist
+   * Separate the input dataset into multiple (unlogged) tables for each of the severity values that exist,
+   * the tables are dropped with the other intermediate tables of the run
    *
    * @param tableName the input dataset table
    * @return the mapping of severity level to dataset table name
@@ -169,14 +126,14 @@ public abstract class Classifier {
       .put("table", SQLUtils.escapeIdentifier(tableName))
       .build();
 
-    try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
+    try (Connection connection = ConnectionPool.getConnection();
          PreparedStatement ps = connection.prepareStatement(getDistinctSql)) {
       ResultSet rs = ps.executeQuery();
       while (rs.next()) {
         Integer severity = rs.getInt("severity");
         String sevTableName = IdGenerator.generate(tableName + "_" + severity.toString() + "_");
 
-        String createSeverityTable = new StringTemplate("CREATE TABLE ${newTable} AS (SELECT ${fields} FROM ${table} WHERE ${field} = ${severity})")
+        String createSeverityTable = new StringTemplate("CREATE UNLOGGED TABLE ${newTable} AS (SELECT ${fields} FROM ${table} WHERE ${field} = ${severity})")
           .put("newTable", SQLUtils.escapeIdentifier(sevTableName))
           .put("fields", attributes.stream().map(Features::getLabel).map(SQLUtils::escapeIdentifier).collect(Collectors.joining(",")))
           .put("table", SQLUtils.escapeIdentifier(tableName))
@@ -184,8 +141,10 @@ public abstract class Classifier {
           .put("severity", severity)
           .build();
 
-        Statement stmt = connection.createStatement();
-        stmt.execute(createSeverityTable);
+        context.getTables().registerTable(sevTableName);
+        try (Statement stmt = connection.createStatement()) {
+          stmt.execute(createSeverityTable);
+        }
 
         severityLevelToTable.put(severity, sevTableName);
       }
@@ -205,7 +164,7 @@ public abstract class Classifier {
     Map<Integer, Integer> out = new LinkedHashMap<>();
     for (Map.Entry<Integer, String> entry : severityTables.entrySet()) {
       String countSql = getCount.put("tableName", SQLUtils.escapeIdentifier(entry.getValue())).build();
-      try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
+      try (Connection connection = ConnectionPool.getConnection();
            PreparedStatement ps = connection.prepareStatement(countSql)) {
         ResultSet rs = ps.executeQuery();
         if (rs.next()) {
@@ -0,0 +1,167 @@
+package com.cs235.classifiers;
+
+import com.cs235.Features;
+import com.cs235.dataset.EncodedDataset;
+import com.cs235.dataset.ValueDictionary;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense, log space form of a trained Naive Bayes model for batch classification
+ * the probability of every attribute value given a severity level is held at logLikelihood[severity][feature][code],
+ * indexed directly by the dictionary code of the record's value, so scoring a record only adds doubles
+ * <p>
+ * a value the model has no probability for contributes nothing (log 1), the same as the map based scoring
+ * which skips the missing probabilities, summing logs instead of multiplying probabilities avoids the underflow to 0
+ */
+public class CompiledNaiveBayes {
+
+  public static final int INVALID = -1;
+
+  private final int[] severityLevels; // severity level per severity index, in model order
+  private final double[] logPrior; // log P(severity) per severity index
+  private final double[][][] logLikelihood; // log P(value | severity) per severity index, feature, code
+  private final int[] tableSize; // number of codes of each feature when compiled
+
+  private CompiledNaiveBayes(int[] severityLevels, double[] logPrior, double[][][] logLikelihood, int[] tableSize) {
+    this.severityLevels = severityLevels;
+    this.logPrior = logPrior;
+    this.logLikelihood = logLikelihood;
+    this.tableSize = tableSize;
+  }
+
+  /**
+   * compile the model against the dictionaries of a dataset, records are classified by their codes in that dataset
+   * (or in any dataset sharing its dictionaries)
+   *
+   * @param trainedProbabilities  the probabilities for each attribute value given a certain severity level
+   * @param severityProbabilities the probability of each severity level
+   * @param features              the features of the model, the column order of the records
+   * @param data                  the dataset providing the dictionaries
+   * @return the compiled model
+   */
+  public static CompiledNaiveBayes compile(Map<Integer, Map<String, Map<String, Double>>> trainedProbabilities,
+                                           Map<Integer, Double> severityProbabilities, List<Features> features, EncodedDataset data) {
+    int severities = trainedProbabilities.size();
+    int[] severityLevels = new int[severities];
+    double[] logPrior = new double[severities];
+    double[][][] logLikelihood = new double[severities][features.size()][];
+    int[] tableSize = new int[features.size()];
+    for (int f = 0; f < features.size(); f++) {
+      tableSize[f] = data.getDictionary(features.get(f)).size();
+    }
+
+    int s = 0;
+    for (Map.Entry<Integer, Map<String, Map<String, Double>>> entry : trainedProbabilities.entrySet()) {
+      severityLevels[s] = entry.getKey();
+      logPrior[s] = Math.log(severityProbabilities.get(entry.getKey()));
+      for (int f = 0; f < features.size(); f++) {
+        logLikelihood[s][f] = new double[tableSize[f]];
+        Map<String, Double> featureProb = entry.getValue().get(features.get(f).getLabel());
+        if (featureProb == null) {
+          continue;
+        }
+        ValueDictionary dictionary = data.getDictionary(features.get(f));
+        for (Map.Entry<String, Double> valueProb : featureProb.entrySet()) {
+          int code = dictionary.lookup(valueProb.getKey());
+          if (code != ValueDictionary.MISSING && valueProb.getValue() != null) {
+            logLikelihood[s][f][code] = Math.log(valueProb.getValue());
+          }
+        }
+      }
+      s++;
+    }
+    return new CompiledNaiveBayes(severityLevels, logPrior, logLikelihood, tableSize);
+  }
+
+  /**
+   * @param columns the code columns of the model features, in model feature order
+   * @param row     the row index
+   * @return the index of the most probable severity level (the first one on a tie), INVALID for a model without severity levels
+   */
+  public int classify(int[][] columns, int row) {
+    int best = INVALID;
+    double bestScore = 0;
+    for (int s = 0; s < logPrior.length; s++) {
+      double[][] likelihood = logLikelihood[s];
+      double score = logPrior[s];
+      for (int f = 0; f < columns.length; f++) {
+        int code = columns[f][row];
+        if (code < tableSize[f]) {
+          score += likelihood[f][code];
+        }
+      }
+      if (best == INVALID || score > bestScore) {
+        best = s;
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * classify a block of records and count them in the confusion matrix
+   *
+   * @param columns        the code columns of the model features, in model feature order
+   * @param severityColumn the code column of the actual severity
+   * @param from           the first record (inclusive)
+   * @param to             the last record (exclusive)
+   * @param confusion      counts per actual severity code and predicted severity index
+   */
+  public void classify(int[][] columns, int[] severityColumn, int from, int to, int[][] confusion) {
+    for (int row = from; row < to; row++) {
+      int predicted = classify(columns, row);
+      if (predicted != INVALID) {
+        confusion[severityColumn[row]][predicted]++;
+      }
+    }
+  }
+
+  /**
+   * classify some records and count them in the confusion matrix
+   *
+   * @param columns        the code columns of the model features, in model feature order
+   * @param severityColumn the code column of the actual severity
+   * @param rows           the row indexes of the records (i.e. the test rows of a fold)
+   * @param confusion      counts per actual severity code and predicted severity index
+   */
+  public void classify(int[][] columns, int[] severityColumn, int[] rows, int[][] confusion) {
+    for (int row : rows) {
+      int predicted = classify(columns, row);
+      if (predicted != INVALID) {
+        confusion[severityColumn[row]][predicted]++;
+      }
+    }
+  }
+
+  /**
+   * classify every record of a dataset
+   *
+   * @param data     the dataset, sharing the dictionaries the model was compiled against
+   * @param features the features of the model
+   * @return counts per actual severity code (of the dataset severity dictionary) and predicted severity index
+   */
+  public int[][] confusionMatrix(EncodedDataset data, List<Features> features) {
+    int[][] columns = new int[features.size()][];
+    for (int f = 0; f < features.size(); f++) {
+      columns[f] = data.getColumn(features.get(f));
+    }
+    int[][] confusion = new int[data.getDictionary(Features.SEVERITY_COLUMN).size()][severityLevels.length];
+    classify(columns, data.getColumn(Features.SEVERITY_COLUMN), 0, data.getRowCount(), confusion);
+    return confusion;
+  }
+
+  /**
+   * @param index the severity index
+   * @return the severity level
+   */
+  public int getSeverityLevel(int index) {
+    return severityLevels[index];
+  }
+
+  public int getSeverityCount() {
+    return severityLevels.length;
+  }
+
+}
@@ -0,0 +1,177 @@
+package com.cs235.classifiers;
+
+import com.cs235.Features;
+import com.cs235.TreeNode;
+import com.cs235.dataset.EncodedDataset;
+import com.cs235.dataset.ValueDictionary;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Flat, array backed form of a trained decision tree for batch classification
+ * every node is an index into the node arrays, an internal node holds the column it splits on and
+ * the base of its child table, which is indexed directly by the dictionary code of the record's value
+ * classification only reads the arrays, so it allocates nothing per record and is safe to run on parallel partitions
+ */
+public class CompiledTree {
+
+  public static final int INVALID = -1;
+
+  private final int[] nodeColumn; // column of the split, INVALID for a leaf
+  private final int[] nodeClass; // severity code of a leaf
+  private final int[] childBase; // offset of the child table of the node
+  private final int[] childSize; // number of codes of the split column when compiled
+  private final int[] childTable; // child node per code, INVALID when the tree has no branch for the code
+
+  private CompiledTree(int[] nodeColumn, int[] nodeClass, int[] childBase, int[] childSize, int[] childTable) {
+    this.nodeColumn = nodeColumn;
+    this.nodeClass = nodeClass;
+    this.childBase = childBase;
+    this.childSize = childSize;
+    this.childTable = childTable;
+  }
+
+  /**
+   * compile the tree against the dictionaries of a dataset, records are classified by their codes in that dataset
+   * (or in any dataset sharing its dictionaries), columns are in the feature order of the dataset
+   *
+   * @param root the trained tree
+   * @param data the dataset providing the column order and dictionaries
+   * @return the compiled tree
+   */
+  public static CompiledTree compile(TreeNode root, EncodedDataset data) {
+    ValueDictionary severityDictionary = data.getDictionary(Features.SEVERITY_COLUMN);
+
+    // number the nodes breadth first
+    List<TreeNode> nodes = new ArrayList<>();
+    Deque<TreeNode> queue = new ArrayDeque<>();
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      TreeNode node = queue.poll();
+      nodes.add(node);
+      queue.addAll(node.children);
+    }
+
+    int[] nodeColumn = new int[nodes.size()];
+    int[] nodeClass = new int[nodes.size()];
+    int[] childBase = new int[nodes.size()];
+    int[] childSize = new int[nodes.size()];
+    int tableSize = 0;
+    for (int i = 0; i < nodes.size(); i++) {
+      TreeNode node = nodes.get(i);
+      if (node.children.isEmpty()) {
+        nodeColumn[i] = INVALID;
+        nodeClass[i] = severityDictionary.lookup(node.value);
+      } else if (node.feature == null || !data.hasFeature(node.feature)) {
+        // a split on a column the dataset does not have can not classify any record
+        nodeColumn[i] = INVALID;
+        nodeClass[i] = INVALID;
+      } else {
+        nodeColumn[i] = data.indexOf(node.feature);
+        childBase[i] = tableSize;
+        childSize[i] = data.getDictionary(node.feature).size();
+        tableSize += childSize[i];
+      }
+    }
+
+    int[] childTable = new int[tableSize];
+    Arrays.fill(childTable, INVALID);
+    int nextChild = 1;
+    for (int i = 0; i < nodes.size(); i++) {
+      TreeNode node = nodes.get(i);
+      if (node.children.isEmpty()) {
+        continue;
+      }
+      ValueDictionary dictionary = nodeColumn[i] == INVALID ? null : data.getDictionary(node.feature);
+      for (TreeNode child : node.children) {
+        int childId = nextChild++;
+        if (dictionary == null) {
+          continue;
+        }
+        int code = dictionary.lookup(child.parentValue);
+        // the first child matching a value wins, the same as the tree walk
+        if (code != ValueDictionary.MISSING && code < childSize[i] && childTable[childBase[i] + code] == INVALID) {
+          childTable[childBase[i] + code] = childId;
+        }
+      }
+    }
+
+    return new CompiledTree(nodeColumn, nodeClass, childBase, childSize, childTable);
+  }
+
+  /**
+   * @param row the codes of one record, in column order
+   * @return the severity code, INVALID if the tree has no branch for one of the record's values
+   */
+  public int classify(int[] row) {
+    int node = 0;
+    while (nodeColumn[node] != INVALID) {
+      int code = row[nodeColumn[node]];
+      if (code >= childSize[node] || (node = childTable[childBase[node] + code]) == INVALID) {
+        return INVALID;
+      }
+    }
+    return nodeClass[node];
+  }
+
+  /**
+   * @param columns the code columns of a dataset, in column order
+   * @param row     the row index
+   * @return the severity code, INVALID if the tree has no branch for one of the record's values
+   */
+  public int classify(int[][] columns, int row) {
+    int node = 0;
+    while (nodeColumn[node] != INVALID) {
+      int code = columns[nodeColumn[node]][row];
+      if (code >= childSize[node] || (node = childTable[childBase[node] + code]) == INVALID) {
+        return INVALID;
+      }
+    }
+    return nodeClass[node];
+  }
+
+  /**
+   * classify a partition of the records
+   *
+   * @param rows        the codes of each record, in column order
+   * @param from        the first record (inclusive)
+   * @param to          the last record (exclusive)
+   * @param predictions receives the severity code of each record, at the index of the record
+   */
+  public void classify(int[][] rows, int from, int to, int[] predictions) {
+    for (int i = from; i < to; i++) {
+      predictions[i] = classify(rows[i]);
+    }
+  }
+
+  /**
+   * @param rows the codes of each record, in column order
+   * @return the severity code of each record
+   */
+  public int[] classify(int[][] rows) {
+    int[] predictions = new int[rows.length];
+    classify(rows, 0, rows.length, predictions);
+    return predictions;
+  }
+
+  /**
+   * classify the records on parallel partitions
+   *
+   * @param rows the codes of each record, in column order
+   * @return the severity code of each record
+   */
+  public int[] classifyParallel(int[][] rows) {
+    int[] predictions = new int[rows.length];
+    Arrays.parallelSetAll(predictions, i -> classify(rows[i]));
+    return predictions;
+  }
+
+  public int getNodeCount() {
+    return nodeColumn.length;
+  }
+
+}
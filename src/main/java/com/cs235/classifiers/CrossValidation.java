@@ -0,0 +1,287 @@
+package com.cs235.classifiers;
+
+import com.cs235.Features;
+import com.cs235.TreeNode;
+import com.cs235.dataset.EncodedDataset;
+import com.cs235.dataset.ValueDictionary;
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * k-fold cross validation of the Naive Bayes and Decision Tree classifiers
+ * the dataset is loaded once, the folds are arrays of row indexes into it (a seeded shuffle of the rows cut into k parts),
+ * every classifier of every fold is trained on the other k-1 folds and evaluated on the fold as a separate task on a thread pool
+ */
+public class CrossValidation extends Classifier {
+
+  private final int folds;
+  private final long seed;
+  private final int parallelism;
+
+  public CrossValidation(PipelineContext context, int folds, long seed) {
+    this(context, folds, seed, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param context     the shared datasets
+   * @param folds       the number of folds
+   * @param seed        the seed of the shuffle assigning the rows to the folds
+   * @param parallelism the number of folds trained at the same time
+   */
+  public CrossValidation(PipelineContext context, int folds, long seed, int parallelism) {
+    super(context);
+    if (folds < 2) {
+      throw new IllegalArgumentException("Cross validation needs at least 2 folds");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    this.folds = folds;
+    this.seed = seed;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * cross validate on every record of the dataset
+   *
+   * @return the accuracy (mean, variance and per fold) and confusion matrix of each classifier
+   * @throws Exception
+   */
+  @Override
+  public String execute() throws Exception {
+    EncodedDataset data = context.loadDataset();
+    ValueDictionary severityDictionary = data.getDictionary(Features.SEVERITY_COLUMN);
+    Gson gson = new Gson();
+
+    StringBuilder out = new StringBuilder();
+    for (Map.Entry<String, Evaluation> entry : crossValidate(data).entrySet()) {
+      Evaluation evaluation = entry.getValue();
+      out.append(String.format("%s Accuracy: mean %s variance %s\n Fold Accuracies: %s\n Confusion Matrix: %s\n\n",
+        entry.getKey(), evaluation.getMeanAccuracy(), evaluation.getAccuracyVariance(),
+        Arrays.toString(evaluation.accuracies), gson.toJson(evaluation.toAccuracyTable(severityDictionary))));
+    }
+
+    return String.format("\n\n %s-Fold Cross Validation:\n\n%s", folds, out.toString());
+  }
+
+  /**
+   * @param data the encoded dataset, with the severity and every attribute
+   * @return the evaluation of each classifier over all folds
+   * @throws Exception
+   */
+  public Map<String, Evaluation> crossValidate(EncodedDataset data) throws Exception {
+    int[][] testRows = createFolds(data.getRowCount());
+    int severities = data.getDictionary(Features.SEVERITY_COLUMN).size();
+
+    Evaluation naiveBayes = new Evaluation(folds);
+    Evaluation decisionTree = new Evaluation(folds);
+
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      List<Future<?>> tasks = new ArrayList<>();
+      for (int fold = 0; fold < folds; fold++) {
+        int foldIndex = fold;
+        int[] foldTestRows = testRows[fold];
+        int[] foldTrainingRows = complement(foldTestRows, data.getRowCount());
+        tasks.add(executor.submit(() -> naiveBayes.record(foldIndex, evaluateNaiveBayes(data, foldTrainingRows, foldTestRows, severities), foldTestRows.length)));
+        tasks.add(executor.submit(() -> decisionTree.record(foldIndex, evaluateDecisionTree(data, foldTrainingRows, foldTestRows, severities), foldTestRows.length)));
+      }
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Map<String, Evaluation> evaluations = new LinkedHashMap<>();
+    evaluations.put("Naive Bayes", naiveBayes);
+    evaluations.put("Decision Tree", decisionTree);
+    return evaluations;
+  }
+
+  /**
+   * shuffle the row indexes with the seed and cut them into folds of (nearly) equal size
+   *
+   * @param rowCount the number of rows of the dataset
+   * @return the ascending row indexes of each fold
+   */
+  private int[][] createFolds(int rowCount) {
+    int[] shuffled = new int[rowCount];
+    for (int row = 0; row < rowCount; row++) {
+      shuffled[row] = row;
+    }
+    Random random = new Random(seed);
+    for (int i = rowCount - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = shuffled[i];
+      shuffled[i] = shuffled[j];
+      shuffled[j] = swap;
+    }
+
+    int[][] foldRows = new int[folds][];
+    for (int fold = 0; fold < folds; fold++) {
+      foldRows[fold] = Arrays.copyOfRange(shuffled, (int) ((long) rowCount * fold / folds), (int) ((long) rowCount * (fold + 1) / folds));
+      Arrays.sort(foldRows[fold]);
+    }
+    return foldRows;
+  }
+
+  /**
+   * @param rows     ascending row indexes
+   * @param rowCount the number of rows of the dataset
+   * @return the ascending row indexes not in rows
+   */
+  private static int[] complement(int[] rows, int rowCount) {
+    int[] complement = new int[rowCount - rows.length];
+    int next = 0;
+    int size = 0;
+    for (int row = 0; row < rowCount; row++) {
+      if (next < rows.length && rows[next] == row) {
+        next++;
+      } else {
+        complement[size++] = row;
+      }
+    }
+    return complement;
+  }
+
+  /**
+   * @return counts per actual and predicted severity code
+   */
+  private int[][] evaluateNaiveBayes(EncodedDataset data, int[] trainingRows, int[] testRows, int severities) {
+    NaiveBayesModel model = new NaiveBayesModel(attributes);
+    model.update(data, trainingRows);
+    CompiledNaiveBayes compiled = CompiledNaiveBayes.compile(model.getProbabilities(), model.getSeverityProbabilities(), attributes, data);
+
+    int[][] columns = new int[attributes.size()][];
+    for (int f = 0; f < attributes.size(); f++) {
+      columns[f] = data.getColumn(attributes.get(f));
+    }
+    int[][] byIndex = new int[severities][compiled.getSeverityCount()];
+    compiled.classify(columns, data.getColumn(Features.SEVERITY_COLUMN), testRows, byIndex);
+
+    // the model is keyed by severity level, map its predictions back to the severity codes of the dataset
+    ValueDictionary severityDictionary = data.getDictionary(Features.SEVERITY_COLUMN);
+    int[][] confusion = new int[severities][severities];
+    for (int predicted = 0; predicted < compiled.getSeverityCount(); predicted++) {
+      int predictedCode = 0;
+      while (predictedCode < severities && severityLevel(severityDictionary.decode(predictedCode)) != compiled.getSeverityLevel(predicted)) {
+        predictedCode++;
+      }
+      for (int actual = 0; actual < severities; actual++) {
+        confusion[actual][predictedCode] += byIndex[actual][predicted];
+      }
+    }
+    return confusion;
+  }
+
+  /**
+   * @return counts per actual and predicted severity code
+   */
+  private int[][] evaluateDecisionTree(EncodedDataset data, int[] trainingRows, int[] testRows, int severities) {
+    // the folds already run in parallel, build each tree on a single thread
+    DecisionTree decisionTree = new DecisionTree(context, 1, Integer.MAX_VALUE);
+    TreeNode root = decisionTree.train(data, trainingRows);
+    CompiledTree tree = CompiledTree.compile(root, data);
+
+    int[][] columns = new int[data.getFeatures().size()][];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = data.getColumn(data.getFeatures().get(i));
+    }
+    int[] severityColumn = data.getColumn(Features.SEVERITY_COLUMN);
+    int[][] confusion = new int[severities][severities];
+    for (int row : testRows) {
+      int predicted = tree.classify(columns, row);
+      if (predicted != CompiledTree.INVALID) {
+        confusion[severityColumn[row]][predicted]++;
+      }
+    }
+    return confusion;
+  }
+
+  /**
+   * The accuracy and confusion matrix of every fold of a classifier
+   * records without a prediction count as misclassified but are not in the confusion matrix
+   */
+  public static class Evaluation {
+    public final double[] accuracies;
+    public final int[][][] confusion; // per fold, actual severity code, predicted severity code
+
+    private Evaluation(int folds) {
+      accuracies = new double[folds];
+      confusion = new int[folds][][];
+    }
+
+    private void record(int fold, int[][] foldConfusion, int testRows) {
+      int correct = 0;
+      for (int severity = 0; severity < foldConfusion.length; severity++) {
+        correct += foldConfusion[severity][severity];
+      }
+      accuracies[fold] = (double) correct / testRows;
+      confusion[fold] = foldConfusion;
+    }
+
+    public double getMeanAccuracy() {
+      double sum = 0;
+      for (double accuracy : accuracies) {
+        sum += accuracy;
+      }
+      return sum / accuracies.length;
+    }
+
+    /**
+     * @return the sample variance of the fold accuracies
+     */
+    public double getAccuracyVariance() {
+      double mean = getMeanAccuracy();
+      double sum = 0;
+      for (double accuracy : accuracies) {
+        sum += (accuracy - mean) * (accuracy - mean);
+      }
+      return sum / (accuracies.length - 1);
+    }
+
+    /**
+     * @return the confusion matrix summed over the folds
+     */
+    public int[][] getConfusion() {
+      int[][] total = new int[confusion[0].length][confusion[0].length];
+      for (int[][] foldConfusion : confusion) {
+        for (int actual = 0; actual < total.length; actual++) {
+          for (int predicted = 0; predicted < total.length; predicted++) {
+            total[actual][predicted] += foldConfusion[actual][predicted];
+          }
+        }
+      }
+      return total;
+    }
+
+    /**
+     * @param severityDictionary the severity dictionary of the dataset
+     * @return the summed confusion matrix as actual severity level -> predicted severity level -> count
+     */
+    private Map<String, Map<String, Integer>> toAccuracyTable(ValueDictionary severityDictionary) {
+      int[][] total = getConfusion();
+      Map<String, Map<String, Integer>> accuracyTable = new LinkedHashMap<>();
+      for (int actual = 0; actual < total.length; actual++) {
+        for (int predicted = 0; predicted < total.length; predicted++) {
+          if (total[actual][predicted] > 0) {
+            accuracyTable.computeIfAbsent(severityLevel(severityDictionary.decode(actual)).toString(), key -> new LinkedHashMap<>())
+              .put(severityLevel(severityDictionary.decode(predicted)).toString(), total[actual][predicted]);
+          }
+        }
+      }
+      return accuracyTable;
+    }
+  }
+
+}
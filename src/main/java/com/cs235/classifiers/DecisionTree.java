@@ -1,45 +1,63 @@
 package com.cs235.classifiers;
 
-import com.cs235.Attribute;
 import com.cs235.Features;
 import com.cs235.TreeNode;
+import com.cs235.dataset.EncodedDataset;
+import com.cs235.dataset.ValueDictionary;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class DecisionTree extends Classifier {
 
+  private static final int DEFAULT_FORK_THRESHOLD = 10_000;
+
+  private final int parallelism;
+  private final int forkThreshold;
   private Map<String, AtomicInteger> resultsPerSeverity = new LinkedHashMap<>();
 
-  public DecisionTree(String tableName) {
-    super(tableName);
+  public DecisionTree(PipelineContext context) {
+    this(context, Runtime.getRuntime().availableProcessors(), DEFAULT_FORK_THRESHOLD);
   }
 
   /**
-   * get the mode (most frequent value) from the list
+   * @param context       the shared datasets
+   * @param parallelism   the number of threads building the tree
+   * @param forkThreshold the minimum number of rows of a child node to build it as a separate task
+   */
+  public DecisionTree(PipelineContext context, int parallelism, int forkThreshold) {
+    super(context);
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    this.parallelism = parallelism;
+    this.forkThreshold = forkThreshold;
+  }
+
+  /**
+   * get the mode (most frequent value) from the codes of the rows
    *
-   * @param list
-   * @return
+   * @param column the code column
+   * @param rows   the row indexes
+   * @param size   the number of distinct codes in the column
+   * @return the code of the mode
    */
-  public static String mode(List<String> list) {
+  public static int mode(int[] column, int[] rows, int size) {
     int max = 0;
-    String modeValue = null;
-    Map<String, AtomicInteger> map = new HashMap<>();
-    for (String s : list) {
-      if (map.containsKey(s)) {
-        map.get(s).incrementAndGet();
-      } else {
-        map.put(s, new AtomicInteger(1));
-      }
-
-      if (map.get(s).get() > max) {
-        modeValue = s;
-        max = map.get(s).get();
+    int modeValue = -1;
+    int[] counts = new int[size];
+    for (int row : rows) {
+      int code = column[row];
+      if (++counts[code] > max) {
+        modeValue = code;
+        max = counts[code];
       }
     }
     return modeValue;
@@ -55,12 +73,11 @@ public class DecisionTree extends Classifier {
    */
   @Override
   public String execute() throws Exception {
-    createTrainingTestSets(tableName);
 
     // get all data
-    List<List<Attribute>> allItemsets = loadItemsets(trainingDataTable);
+    EncodedDataset trainingData = context.getTrainingData();
 
-    TreeNode root = train(allItemsets);
+    TreeNode root = train(trainingData);
 
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     String json = gson.toJson(root);
@@ -69,17 +86,19 @@ public class DecisionTree extends Classifier {
       writer.write(json);
     }
 
-    Map<Integer, String> severityTables = separateBySeverity(trainingDataTable);
-    Map<Integer, Integer> severityTypeCount = getSeverityCount(severityTables);
+    int[] severityColumn = trainingData.getColumn(Features.SEVERITY_COLUMN);
+    Map<String, Integer> severityTypeCount = new LinkedHashMap<>();
+    for (int row = 0; row < trainingData.getRowCount(); row++) {
+      severityTypeCount.merge(trainingData.getDictionary(Features.SEVERITY_COLUMN).decode(severityColumn[row]), 1, Integer::sum);
+    }
 
-    Double accuracy = executeOnTestData(root);
+    Double accuracy = executeOnTestData(root, context.getTestData());
 
     StringBuilder accuracyPerSeverity = new StringBuilder();
-    for (Integer severity : severityTypeCount.keySet()) {
-      String severityStr = severity.toString() + ".00000000";
-      if (resultsPerSeverity.containsKey(severityStr)) {
-        Double accuracySeverity = (double) resultsPerSeverity.get(severityStr).get() / severityTypeCount.get(severity);
-        accuracyPerSeverity.append(String.format("Severity %s: Accuracy %s", severity.toString(), accuracySeverity));
+    for (Map.Entry<String, Integer> severity : severityTypeCount.entrySet()) {
+      if (resultsPerSeverity.containsKey(severity.getKey())) {
+        Double accuracySeverity = (double) resultsPerSeverity.get(severity.getKey()).get() / severity.getValue();
+        accuracyPerSeverity.append(String.format("Severity %s: Accuracy %s", severityLevel(severity.getKey()), accuracySeverity));
       }
     }
 
@@ -87,66 +106,65 @@ public class DecisionTree extends Classifier {
   }
 
   /**
-   * trace the Tree on the test dataset to determine accuracy
+   * trace the (compiled) Tree on the test dataset to determine accuracy
    *
    * @param root
+   * @param testData the encoded test dataset
    * @return
-   * @throws Exception
    */
-  public Double executeOnTestData(TreeNode root) throws Exception {
+  public Double executeOnTestData(TreeNode root, EncodedDataset testData) {
     int classifiedProperly = 0;
-    int totalTestData = getTotalCount(testDataTable);
+    int totalTestData = testData.getRowCount();
+
+    CompiledTree tree = CompiledTree.compile(root, testData);
+    int[][] columns = new int[testData.getFeatures().size()][];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = testData.getColumn(testData.getFeatures().get(i));
+    }
+    int[] severityColumn = testData.getColumn(Features.SEVERITY_COLUMN);
+    int[] correctPerSeverity = new int[testData.getDictionary(Features.SEVERITY_COLUMN).size()];
 
-    List<List<Attribute>> allItemsets = loadItemsets(testDataTable);
-    for (List<Attribute> item : allItemsets) {
-      String classifiedSeverity = classify(root, item);
-      Attribute a = item.stream().filter(f -> f.feature.equals(Features.SEVERITY_COLUMN)).findFirst().get();
-      if (a.value.equals(classifiedSeverity)) {
+    for (int row = 0; row < totalTestData; row++) {
+      int classifiedSeverity = tree.classify(columns, row);
+      if (classifiedSeverity != CompiledTree.INVALID && classifiedSeverity == severityColumn[row]) {
         classifiedProperly++;
-        if (resultsPerSeverity.containsKey(classifiedSeverity)) {
-          resultsPerSeverity.get(classifiedSeverity).incrementAndGet();
-        } else {
-          resultsPerSeverity.put(classifiedSeverity, new AtomicInteger(1));
-        }
+        correctPerSeverity[classifiedSeverity]++;
+      }
+    }
+
+    ValueDictionary severityDictionary = testData.getDictionary(Features.SEVERITY_COLUMN);
+    for (int severity = 0; severity < correctPerSeverity.length; severity++) {
+      String severityValue = severityDictionary.decode(severity);
+      if (correctPerSeverity[severity] > 0 && severityValue != null) {
+        resultsPerSeverity.computeIfAbsent(severityValue, k -> new AtomicInteger()).addAndGet(correctPerSeverity[severity]);
       }
     }
     return (double) classifiedProperly / totalTestData;
   }
 
-  /**
-   * for the particular item, get the Severity classification from the tree
-   *
-   * @param root
-   * @param item
-   * @return
-   */
-  public String classify(TreeNode root, List<Attribute> item) {
-    TreeNode node = root;
-    while (!node.children.isEmpty()) { // get to the leaf node
-      Features parentFeat = node.feature;
-      Optional<Attribute> a = item.stream().filter(f -> f.feature.equals(parentFeat)).findFirst();
-      if (a.isPresent()) {
-        Optional<TreeNode> newNode = node.children.stream()
-          .filter(c -> (c.parentValue != null && c.parentValue.equals(a.get().value)) || (c.parentValue == null && a.get().value == null))
-          .findFirst();
-
-        if (newNode.isPresent()) {
-          node = newNode.get();
-        } else {
-          return "INVALID_SEVERITY";
-        }
-      } else {
-        return "INVALID_SEVERITY";
-      }
+  public TreeNode train(EncodedDataset trainingData) {
+    int[] rows = new int[trainingData.getRowCount()];
+    for (int row = 0; row < rows.length; row++) {
+      rows[row] = row;
     }
-    return node.value;
+    return train(trainingData, rows);
   }
 
-  public TreeNode train(List<List<Attribute>> trainingData) {
+  /**
+   * @param data the encoded dataset
+   * @param rows the row indexes of the dataset to train on (i.e. the training rows of a fold)
+   * @return the root of the tree
+   */
+  public TreeNode train(EncodedDataset data, int[] rows) {
     List<Features> features = new ArrayList<>();
     features.addAll(attributes);
 
-    return buildTree(trainingData, features, null);
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return pool.invoke(new BuildTask(data, rows, features, null));
+    } finally {
+      pool.shutdown();
+    }
   }
 
   /**
@@ -155,101 +173,199 @@ public class DecisionTree extends Classifier {
    * The next level will again determine the best split based on entropy until we are at a leaf node
    * the leaf node is the Severity Attribute value
    *
-   * @param actualItemsets
+   * @param data
+   * @param rows         the row indexes of the dataset belonging to this node
    * @param features
    * @param prevSplitVal
    * @return
    */
-  private TreeNode buildTree(List<List<Attribute>> actualItemsets, List<Features> features, String prevSplitVal) {
+  private TreeNode buildTree(EncodedDataset data, int[] rows, List<Features> features, String prevSplitVal) {
 
-    // all same severity value
-    List<String> distinctValues = actualItemsets.stream()
-      .map(i -> i.stream().filter(a -> a.feature.equals(Features.SEVERITY_COLUMN)).findFirst().get().value)
-      .distinct().collect(Collectors.toList());
+    int[] severityColumn = data.getColumn(Features.SEVERITY_COLUMN);
+    ValueDictionary severityDictionary = data.getDictionary(Features.SEVERITY_COLUMN);
 
-    boolean homogenous = distinctValues.size() == 1;
+    // all same severity value
+    boolean homogenous = true;
+    for (int row : rows) {
+      if (severityColumn[row] != severityColumn[rows[0]]) {
+        homogenous = false;
+        break;
+      }
+    }
     if (homogenous) {
-      return new TreeNode(prevSplitVal, Features.SEVERITY_COLUMN, distinctValues.get(0));
+      return new TreeNode(prevSplitVal, Features.SEVERITY_COLUMN, severityDictionary.decode(severityColumn[rows[0]]));
     }
 
     boolean stop = features.isEmpty();
     if (stop) {
       // get the mode value
-      List<String> severityValues = actualItemsets.stream()
-        .map(i -> i.stream().filter(a -> a.feature.equals(Features.SEVERITY_COLUMN)).findFirst().get().value)
-        .collect(Collectors.toList());
-      return new TreeNode(prevSplitVal, Features.SEVERITY_COLUMN, mode(severityValues));
+      return new TreeNode(prevSplitVal, Features.SEVERITY_COLUMN, severityDictionary.decode(mode(severityColumn, rows, severityDictionary.size())));
     }
 
-    Features splitOn = getSplitFeature(actualItemsets, features);
-    Map<String, List<List<Attribute>>> splitItemsets = splitOnFeature(splitOn, actualItemsets);
+    // only the winning feature is partitioned
+    Features splitOn = getSplitFeature(data, rows, features);
+    Map<Integer, int[]> splitRows = splitOnFeature(data.getColumn(splitOn), data.getDictionary(splitOn).size(), rows);
 
     List<Features> newFeatures = features.stream().filter(f -> !f.equals(splitOn)).collect(Collectors.toList());
     TreeNode node = new TreeNode(prevSplitVal, splitOn, prevSplitVal);
 
-    for (Map.Entry<String, List<List<Attribute>>> splitSet : splitItemsets.entrySet()) { // add children to current node according to split
-      if (splitSet.getValue().isEmpty()) {
+    // sibling subtrees are independent, large ones are forked and small ones built inline
+    // the children are joined in split order so the tree is the same as a sequential build
+    ValueDictionary splitDictionary = data.getDictionary(splitOn);
+    List<BuildTask> children = new ArrayList<>();
+    for (Map.Entry<Integer, int[]> splitSet : splitRows.entrySet()) { // add children to current node according to split
+      if (splitSet.getValue().length == 0) {
         // get the mode value
-        List<String> severityValues = actualItemsets.stream()
-          .map(i -> i.stream().filter(a -> a.feature.equals(Features.SEVERITY_COLUMN)).findFirst().get().value)
-          .collect(Collectors.toList());
-        node.children.add(new TreeNode(prevSplitVal, Features.SEVERITY_COLUMN, mode(severityValues)));
+        node.children.add(new TreeNode(prevSplitVal, Features.SEVERITY_COLUMN, severityDictionary.decode(mode(severityColumn, rows, severityDictionary.size()))));
+        children.add(null);
       } else {
-        node.children.add(buildTree(splitSet.getValue(), newFeatures, splitSet.getKey()));
+        BuildTask child = new BuildTask(data, splitSet.getValue(), newFeatures, splitDictionary.decode(splitSet.getKey()));
+        if (splitSet.getValue().length >= forkThreshold) {
+          child.fork();
+        }
+        node.children.add(null);
+        children.add(child);
+      }
+    }
+    for (int i = 0; i < children.size(); i++) {
+      BuildTask child = children.get(i);
+      if (child != null) {
+        node.children.set(i, child.rows.length >= forkThreshold ? child.join() : child.invoke());
       }
     }
 
     return node;
   }
 
-  private Features getSplitFeature(List<List<Attribute>> actualItemsets, List<Features> features) {
+  private class BuildTask extends RecursiveTask<TreeNode> {
+    private final EncodedDataset data;
+    private final int[] rows;
+    private final List<Features> features;
+    private final String prevSplitVal;
+
+    private BuildTask(EncodedDataset data, int[] rows, List<Features> features, String prevSplitVal) {
+      this.data = data;
+      this.rows = rows;
+      this.features = features;
+      this.prevSplitVal = prevSplitVal;
+    }
+
+    @Override
+    protected TreeNode compute() {
+      return buildTree(data, rows, features, prevSplitVal);
+    }
+  }
+
+  /**
+   * build a contingency table (feature value x severity counts) for every remaining feature in one pass over the rows of the node
+   * the impurity of a split is the average entropy of its (non empty) partitions, computed from the table without partitioning
+   *
+   * @param data
+   * @param rows     the row indexes of the node
+   * @param features the remaining features
+   * @return the feature with the lowest impurity
+   */
+  private Features getSplitFeature(EncodedDataset data, int[] rows, List<Features> features) {
+    int[] severityColumn = data.getColumn(Features.SEVERITY_COLUMN);
+    int severities = data.getDictionary(Features.SEVERITY_COLUMN).size();
+
+    int[][] columns = new int[features.size()][];
+    int[][] counts = new int[features.size()][]; // [value * severities + severity]
+    int[][] firstSeverity = new int[features.size()][]; // severity of the first row of each value
+    int[][] valueOrder = new int[features.size()][]; // values in first-seen order
+    int[] distinctValues = new int[features.size()];
+    for (int f = 0; f < features.size(); f++) {
+      int values = data.getDictionary(features.get(f)).size();
+      columns[f] = data.getColumn(features.get(f));
+      counts[f] = new int[values * severities];
+      firstSeverity[f] = new int[values];
+      Arrays.fill(firstSeverity[f], -1);
+      valueOrder[f] = new int[values];
+    }
+
+    for (int row : rows) {
+      int severity = severityColumn[row];
+      for (int f = 0; f < columns.length; f++) {
+        int value = columns[f][row];
+        if (firstSeverity[f][value] == -1) {
+          firstSeverity[f][value] = severity;
+          valueOrder[f][distinctValues[f]++] = value;
+        }
+        counts[f][value * severities + severity]++;
+      }
+    }
+
     Double impurity = 1.0;
     Features splitOn = null;
-    for (Features f : features) {
-      Map<String, List<List<Attribute>>> splitItemsets = splitOnFeature(f, actualItemsets);
-      double splitImpurity = splitItemsets.values().stream().filter(list -> !list.isEmpty())
-        .mapToDouble(list -> entropyImpurity(list.stream().map(i -> i.stream()
-          .filter(feat -> feat.feature.equals(Features.SEVERITY_COLUMN)).findFirst().get()).collect(Collectors.toList())))
-        .average().getAsDouble();
+    for (int f = 0; f < features.size(); f++) {
+      double totalImpurity = 0.0;
+      for (int i = 0; i < distinctValues[f]; i++) {
+        int value = valueOrder[f][i];
+        int total = 0;
+        for (int severity = 0; severity < severities; severity++) {
+          total += counts[f][value * severities + severity];
+        }
+        totalImpurity += entropyImpurity(counts[f][value * severities + firstSeverity[f][value]], total);
+      }
+      double splitImpurity = totalImpurity / distinctValues[f];
       if (splitImpurity < impurity) {
         impurity = splitImpurity;
-        splitOn = f;
+        splitOn = features.get(f);
       }
 
     }
     return splitOn;
   }
 
-  private Map<String, List<List<Attribute>>> splitOnFeature(Features feature, List<List<Attribute>> actualItemsets) {
-    Map<String, List<List<Attribute>>> splitItemsets = new LinkedHashMap<>();
-    for (List<Attribute> itemset : actualItemsets) {
-      Attribute attr = itemset.stream().filter(a -> a.feature.equals(feature)).findFirst().get();
-      if (splitItemsets.containsKey(attr.value)) {
-        splitItemsets.get(attr.value).add(itemset);
-      } else {
-        splitItemsets.put(attr.value, new ArrayList<List<Attribute>>() {{
-          add(itemset);
-        }});
+  /**
+   * partition the rows by their code in the column, partitions are in first-seen order of the codes
+   *
+   * @param column the code column to split on
+   * @param size   the number of distinct codes in the column
+   * @param rows   the row indexes
+   * @return mapping of code to the row indexes having that code
+   */
+  private static Map<Integer, int[]> splitOnFeature(int[] column, int size, int[] rows) {
+    int[] sizes = new int[size];
+    int[] order = new int[size];
+    int distinct = 0;
+    for (int row : rows) {
+      if (sizes[column[row]]++ == 0) {
+        order[distinct++] = column[row];
       }
     }
-    return splitItemsets;
+
+    int[][] partitions = new int[size][];
+    Map<Integer, int[]> splitRows = new LinkedHashMap<>();
+    for (int i = 0; i < distinct; i++) {
+      partitions[order[i]] = new int[sizes[order[i]]];
+      splitRows.put(order[i], partitions[order[i]]);
+    }
+    int[] positions = new int[size];
+    for (int row : rows) {
+      int code = column[row];
+      partitions[code][positions[code]++] = row;
+    }
+    return splitRows;
   }
 
   /**
    * calculate the entropy of the data from the split (the purity)  0.0 means all are the same (pure)
+   * p is the share of the severity of the first row of the split
    *
-   * @param data
+   * @param firstCount the number of rows with the same severity as the first row
+   * @param total      the number of rows of the split
    * @return
    */
-  public Double entropyImpurity(List<Attribute> data) {
-    List<String> values = data.stream().map(r -> r.value).distinct().collect(Collectors.toList());
-    if (values.size() > 1) {
-      double p = (double) data.parallelStream().filter(d -> d.value.equals(values.get(0))).count() / data.size();
+  public static double entropyImpurity(int firstCount, int total) {
+    if (total == 0) {
+      throw new RuntimeException();
+    }
+    if (firstCount < total) {
+      double p = (double) firstCount / total;
       return -1.0 * p * Math.log(p) - ((1.0 - p) * Math.log(1.0 - p));
-    } else if (values.size() == 1) {
-      return 0.0;
     } else {
-      throw new RuntimeException();
+      return 0.0;
     }
   }
 
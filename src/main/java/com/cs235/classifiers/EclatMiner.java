@@ -0,0 +1,120 @@
+package com.cs235.classifiers;
+
+import com.cs235.Attribute;
+import com.cs235.Features;
+import com.cs235.dataset.EncodedDataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vertical (Eclat style) itemset mining
+ * every frequent item keeps the bitset of the row ids (tidlist) containing it,
+ * the support of a joined itemset is the cardinality of the AND of the tidlists of the two itemsets it was joined from
+ * so the transactions are only scanned once to build the item tidlists
+ * <p>
+ * itemsets are joined level by level within their prefix equivalence class,
+ * which generates (and returns) exactly the same itemsets in the same order as the Apriori scan in AssociationRules
+ * only frequent items get a tidlist, so every bitset is at least minSupport dense
+ */
+class EclatMiner {
+
+  private final ItemCatalog catalog;
+  private final double minSupport;
+  private final int maxSize;
+
+  EclatMiner(ItemCatalog catalog, double minSupport, int maxSize) {
+    this.catalog = catalog;
+    this.minSupport = minSupport;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return mapping of itemset to support of every frequent itemset
+   */
+  Map<List<Attribute>, Double> mine() {
+    EncodedDataset data = catalog.getData();
+    int tableTotal = data.getRowCount();
+
+    // C1 support and the tidlists of the frequent items
+    int[] itemCounts = catalog.countItems();
+    BitSet[] itemTidLists = new BitSet[catalog.size()];
+    for (int item = 0; item < catalog.size(); item++) {
+      if (itemCounts[item] > 0 && (double) itemCounts[item] / tableTotal >= minSupport) {
+        itemTidLists[item] = new BitSet(tableTotal);
+      }
+    }
+    List<Features> features = data.getFeatures();
+    for (int i = 0; i < features.size(); i++) {
+      int[] column = data.getColumn(features.get(i));
+      for (int row = 0; row < tableTotal; row++) {
+        BitSet tidList = itemTidLists[catalog.item(i, column[row])];
+        if (tidList != null) {
+          tidList.set(row);
+        }
+      }
+    }
+
+    List<int[]> frequentItemsets = new ArrayList<>();
+    List<BitSet> frequentTidLists = new ArrayList<>();
+    Map<List<Attribute>, Double> resultItemset = new LinkedHashMap<>();
+    for (int item = 0; item < catalog.size(); item++) {
+      if (itemTidLists[item] != null) {
+        frequentItemsets.add(new int[]{item});
+        frequentTidLists.add(itemTidLists[item]);
+        resultItemset.put(catalog.toAttributes(new int[]{item}), (double) itemCounts[item] / tableTotal);
+      }
+    }
+
+    for (int size = 2; size <= maxSize && !frequentItemsets.isEmpty(); size++) {
+      List<int[]> nextFrequentItemsets = new ArrayList<>();
+      List<BitSet> nextFrequentTidLists = new ArrayList<>();
+
+      for (int i = 0; i < frequentItemsets.size() - 1; i++) {
+        int[] left = frequentItemsets.get(i);
+        for (int j = i + 1; j < frequentItemsets.size(); j++) {
+          int[] right = frequentItemsets.get(j);
+          int rightTail = right[right.length - 1];
+          // same prefix, last item from a different category column
+          if (!samePrefix(left, right) || catalog.column(left[left.length - 1]) == catalog.column(rightTail)) {
+            continue;
+          }
+
+          BitSet tidList = (BitSet) frequentTidLists.get(i).clone();
+          tidList.and(frequentTidLists.get(j));
+          int count = tidList.cardinality();
+
+          if (count > 0 && (double) count / tableTotal >= minSupport) {
+            int[] combined = Arrays.copyOf(left, left.length + 1);
+            combined[left.length] = rightTail;
+            nextFrequentItemsets.add(combined);
+            nextFrequentTidLists.add(tidList);
+          }
+        }
+      }
+
+      for (int i = 0; i < nextFrequentItemsets.size(); i++) {
+        resultItemset.put(catalog.toAttributes(nextFrequentItemsets.get(i)), (double) nextFrequentTidLists.get(i).cardinality() / tableTotal);
+      }
+
+      frequentItemsets = nextFrequentItemsets;
+      frequentTidLists = nextFrequentTidLists;
+    }
+
+    return resultItemset;
+  }
+
+  private static boolean samePrefix(int[] left, int[] right) {
+    for (int i = 0; i < left.length - 1; i++) {
+      if (left[i] != right[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
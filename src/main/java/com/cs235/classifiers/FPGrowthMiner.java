@@ -0,0 +1,230 @@
+package com.cs235.classifiers;
+
+import com.cs235.Attribute;
+import com.cs235.Features;
+import com.cs235.dataset.EncodedDataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FP-Growth frequent itemset mining
+ * pass 1 counts the support of every item, pass 2 inserts the frequent items of every row (in descending support order)
+ * into a prefix tree (FP-tree), the frequent itemsets are then mined from the tree alone by recursing on the
+ * conditional tree of every item (the prefix paths of all the nodes of the item)
+ * <p>
+ * no candidates are generated, so lowering minSupport only grows the tree instead of the number of transaction scans
+ */
+class FPGrowthMiner {
+
+  private final ItemCatalog catalog;
+  private final double minSupport;
+  private final int tableTotal;
+
+  FPGrowthMiner(ItemCatalog catalog, double minSupport) {
+    this.catalog = catalog;
+    this.minSupport = minSupport;
+    tableTotal = catalog.getData().getRowCount();
+  }
+
+  /**
+   * @return mapping of itemset to support of every frequent itemset,
+   * ordered by itemset size and then by item (the same order the level-wise miners generate them in)
+   */
+  Map<List<Attribute>, Double> mine() {
+    EncodedDataset data = catalog.getData();
+    List<Features> features = data.getFeatures();
+
+    // pass 1: item supports, rank the frequent items by descending support
+    int[] itemCounts = catalog.countItems();
+    Integer[] frequentItems = new Integer[catalog.size()];
+    int frequentCount = 0;
+    for (int item = 0; item < catalog.size(); item++) {
+      if (isFrequent(itemCounts[item])) {
+        frequentItems[frequentCount++] = item;
+      }
+    }
+    Arrays.sort(frequentItems, 0, frequentCount, (a, b) -> itemCounts[a] != itemCounts[b] ? Integer.compare(itemCounts[b], itemCounts[a]) : Integer.compare(a, b));
+    int[] rank = new int[catalog.size()];
+    Arrays.fill(rank, -1);
+    for (int i = 0; i < frequentCount; i++) {
+      rank[frequentItems[i]] = i;
+    }
+
+    // pass 2: build the tree from the frequent items of every row
+    int[][] columns = new int[features.size()][];
+    for (int i = 0; i < features.size(); i++) {
+      columns[i] = data.getColumn(features.get(i));
+    }
+    FPTree tree = new FPTree(catalog.size());
+    int[] path = new int[features.size()];
+    for (int row = 0; row < tableTotal; row++) {
+      int length = 0;
+      for (int i = 0; i < columns.length; i++) {
+        int item = catalog.item(i, columns[i][row]);
+        if (rank[item] != -1) {
+          // insertion sort by rank, rows only hold one item per feature
+          int position = length++;
+          while (position > 0 && rank[path[position - 1]] > rank[item]) {
+            path[position] = path[position - 1];
+            position--;
+          }
+          path[position] = item;
+        }
+      }
+      tree.insert(path, length, 1);
+    }
+
+    List<int[]> itemsets = new ArrayList<>();
+    List<Integer> counts = new ArrayList<>();
+    mine(tree, new int[0], itemsets, counts);
+
+    Integer[] order = new Integer[itemsets.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> compareItemsets(itemsets.get(a), itemsets.get(b)));
+
+    Map<List<Attribute>, Double> resultItemset = new LinkedHashMap<>();
+    for (Integer i : order) {
+      resultItemset.put(catalog.toAttributes(itemsets.get(i)), (double) counts.get(i) / tableTotal);
+    }
+    return resultItemset;
+  }
+
+  /**
+   * every frequent item of the tree extends the suffix to a frequent itemset,
+   * the prefix paths of the item form the conditional tree the extended itemset is mined from
+   *
+   * @param tree     the (conditional) tree
+   * @param suffix   the items the tree is conditioned on
+   * @param itemsets collects the frequent itemsets (ascending item ids)
+   * @param counts   collects the row count of each frequent itemset
+   */
+  private void mine(FPTree tree, int[] suffix, List<int[]> itemsets, List<Integer> counts) {
+    for (int item = 0; item < tree.itemCounts.length; item++) {
+      if (tree.heads[item] == null || !isFrequent(tree.itemCounts[item])) {
+        continue;
+      }
+
+      int[] itemset = Arrays.copyOf(suffix, suffix.length + 1);
+      itemset[suffix.length] = item;
+      Arrays.sort(itemset);
+      itemsets.add(itemset);
+      counts.add(tree.itemCounts[item]);
+
+      // count the items of the conditional pattern base
+      int[] conditionalCounts = new int[tree.itemCounts.length];
+      boolean anyFrequent = false;
+      for (FPNode node = tree.heads[item]; node != null; node = node.next) {
+        for (FPNode parent = node.parent; parent.item != -1; parent = parent.parent) {
+          conditionalCounts[parent.item] += node.count;
+        }
+      }
+      for (int count : conditionalCounts) {
+        if (isFrequent(count)) {
+          anyFrequent = true;
+          break;
+        }
+      }
+      if (!anyFrequent) {
+        continue;
+      }
+
+      FPTree conditionalTree = new FPTree(tree.itemCounts.length);
+      int[] path = new int[catalog.getData().getFeatures().size()];
+      for (FPNode node = tree.heads[item]; node != null; node = node.next) {
+        int length = 0;
+        for (FPNode parent = node.parent; parent.item != -1; parent = parent.parent) {
+          if (isFrequent(conditionalCounts[parent.item])) {
+            path[length++] = parent.item;
+          }
+        }
+        // the path was collected leaf to root, insert it root to leaf
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+          int swap = path[i];
+          path[i] = path[j];
+          path[j] = swap;
+        }
+        conditionalTree.insert(path, length, node.count);
+      }
+      mine(conditionalTree, itemset, itemsets, counts);
+    }
+  }
+
+  private boolean isFrequent(int count) {
+    return count > 0 && (double) count / tableTotal >= minSupport;
+  }
+
+  private static int compareItemsets(int[] left, int[] right) {
+    if (left.length != right.length) {
+      return Integer.compare(left.length, right.length);
+    }
+    for (int i = 0; i < left.length; i++) {
+      if (left[i] != right[i]) {
+        return Integer.compare(left[i], right[i]);
+      }
+    }
+    return 0;
+  }
+
+  private static final class FPNode {
+    private final int item;
+    private final FPNode parent;
+    private int count;
+    private FPNode next;
+    private FPNode[] children = new FPNode[0];
+
+    private FPNode(int item, FPNode parent) {
+      this.item = item;
+      this.parent = parent;
+    }
+
+    private FPNode child(int item) {
+      for (FPNode child : children) {
+        if (child.item == item) {
+          return child;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final class FPTree {
+    private final FPNode root = new FPNode(-1, null);
+    private final FPNode[] heads;
+    private final int[] itemCounts;
+
+    private FPTree(int items) {
+      heads = new FPNode[items];
+      itemCounts = new int[items];
+    }
+
+    /**
+     * @param path   the items in tree order
+     * @param length the number of items of the path
+     * @param count  the number of rows having the path
+     */
+    private void insert(int[] path, int length, int count) {
+      FPNode node = root;
+      for (int i = 0; i < length; i++) {
+        int item = path[i];
+        FPNode child = node.child(item);
+        if (child == null) {
+          child = new FPNode(item, node);
+          node.children = Arrays.copyOf(node.children, node.children.length + 1);
+          node.children[node.children.length - 1] = child;
+          child.next = heads[item];
+          heads[item] = child;
+        }
+        child.count += count;
+        itemCounts[item] += count;
+        node = child;
+      }
+    }
+  }
+
+}
@@ -1,7 +1,8 @@
 package com.cs235.classifiers;
 
-import com.cs235.Main;
+import com.cs235.database.ConnectionPool;
 import com.cs235.database.SQLUtils;
+import com.cs235.dataset.EmbeddedTable;
 import com.esri.core.geometry.Geometry;
 import com.esri.core.geometry.GeometryEngine;
 import com.esri.core.geometry.WktImportFlags;
@@ -15,20 +16,39 @@ import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class GridBasedClustering {
 
   private static final Double BOX_SIZE = 0.035;
   private static final String COL_X = "x";
   private static final String COL_Y = "y";
+
+  /**
+   * the dataset columns the clustering reads
+   */
+  public static final List<String> COLUMNS = Collections.unmodifiableList(Arrays.asList(COL_X, COL_Y));
   private static final String COL_OID = "oid";
   private static final String COL_COUNT = "binCount";
 
   private final String tableName;
+  private final EmbeddedTable embeddedTable;
 
   public GridBasedClustering(String tableName) {
     this.tableName = tableName;
+    this.embeddedTable = null;
+  }
+
+  /**
+   * @param context the shared dataset, binned in memory for an embedded context
+   */
+  public GridBasedClustering(PipelineContext context) {
+    this.tableName = context.getTableName();
+    this.embeddedTable = context.getEmbeddedTable();
   }
 
   public static List<GridCluster> generateBinData(String tableName) throws Exception {
@@ -40,13 +60,41 @@ public class GridBasedClustering {
       .append(String.format(" GROUP BY floor(%s/%.20f), floor(%s/%.20f) ", SQLUtils.escapeIdentifier(COL_X), BOX_SIZE, SQLUtils.escapeIdentifier(COL_Y), BOX_SIZE))
       .toString();
 
-    try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
+    try (Connection connection = ConnectionPool.getConnection();
          PreparedStatement ps = connection.prepareStatement(binQuery)) {
       // calculate the gid based clusters to select the top N dense areas
       return createGenerateBinOutput(ps.executeQuery());
     }
   }
 
+  /**
+   * the bin query over in-memory coordinates, the bins are numbered in the order they are first seen
+   *
+   * @param x the x coordinate of every row, NaN when missing
+   * @param y the y coordinate of every row, NaN when missing
+   * @return the clusters
+   * @throws Exception
+   */
+  public static List<GridCluster> generateBinData(double[] x, double[] y) throws Exception {
+    Map<List<Double>, int[]> binCounts = new LinkedHashMap<>();
+    for (int row = 0; row < x.length; row++) {
+      if (Double.isNaN(x[row]) || Double.isNaN(y[row])) {
+        continue;
+      }
+      // adding 0.0 turns -0.0 into 0.0, which the database groups together
+      List<Double> bin = Arrays.asList(Math.floor(x[row] / BOX_SIZE) + 0.0, Math.floor(y[row] / BOX_SIZE) + 0.0);
+      binCounts.computeIfAbsent(bin, key -> new int[1])[0]++;
+    }
+
+    List<GridCluster> clusters = new ArrayList<>();
+    int rowNumber = 0;
+    for (Map.Entry<List<Double>, int[]> entry : binCounts.entrySet()) {
+      // the values in the column order of the bin query
+      clusters.add(createCluster(entry.getValue()[0], ++rowNumber, entry.getKey().get(0), entry.getKey().get(1)));
+    }
+    return clusters;
+  }
+
   public static List<GridCluster> createGenerateBinOutput(ResultSet rs) throws SQLException, JSONException {
     List<GridCluster> clusters = new ArrayList<>();
 
@@ -61,24 +109,7 @@ public class GridBasedClustering {
         Double xVal = Double.parseDouble(SQLUtil.getValue(rs, ++fldIdx, Types.BIGINT).toString());
         Double yVal = Double.parseDouble(SQLUtil.getValue(rs, ++fldIdx, Types.BIGINT).toString());
 
-        cluster.oid = oid;
-        cluster.count = count;
-        cluster.x = xVal;
-        cluster.y = yVal;
-
-        Double xMin = xVal * BOX_SIZE;
-        Double yMin = yVal * BOX_SIZE;
-        Double xMax = (xVal + 1) * BOX_SIZE;
-        Double yMax = (yVal + 1) * BOX_SIZE;
-
-        cluster.geometryWkt = String.format("polygon((%f %f, %f %f, %f %f, %f %f, %f %f))",
-          xMin, yMin,
-          xMax, yMin,
-          xMax, yMax,
-          xMin, yMax,
-          xMin, yMin);
-
-        cluster.geometry = GeometryEngine.geometryFromWkt(cluster.geometryWkt, WktImportFlags.wktImportDefaults, Geometry.Type.Polygon);
+        cluster = createCluster(oid, count, xVal, yVal);
       } catch (NullPointerException ex) {
         // continue
       }
@@ -87,8 +118,33 @@ public class GridBasedClustering {
     return clusters;
   }
 
+  private static GridCluster createCluster(int oid, int count, Double xVal, Double yVal) {
+    GridCluster cluster = new GridCluster();
+    cluster.oid = oid;
+    cluster.count = count;
+    cluster.x = xVal;
+    cluster.y = yVal;
+
+    Double xMin = xVal * BOX_SIZE;
+    Double yMin = yVal * BOX_SIZE;
+    Double xMax = (xVal + 1) * BOX_SIZE;
+    Double yMax = (yVal + 1) * BOX_SIZE;
+
+    cluster.geometryWkt = String.format("polygon((%f %f, %f %f, %f %f, %f %f, %f %f))",
+      xMin, yMin,
+      xMax, yMin,
+      xMax, yMax,
+      xMin, yMax,
+      xMin, yMin);
+
+    cluster.geometry = GeometryEngine.geometryFromWkt(cluster.geometryWkt, WktImportFlags.wktImportDefaults, Geometry.Type.Polygon);
+    return cluster;
+  }
+
   public List<GridBasedClustering.GridCluster> execute() throws Exception {
-    List<GridBasedClustering.GridCluster> gridClusters = GridBasedClustering.generateBinData(tableName);
+    List<GridBasedClustering.GridCluster> gridClusters = embeddedTable == null
+      ? GridBasedClustering.generateBinData(tableName)
+      : GridBasedClustering.generateBinData(embeddedTable.getNumericColumn(COL_X), embeddedTable.getNumericColumn(COL_Y));
 
     // write the results to file
     try (FileOutputStream outStream = new FileOutputStream("out/grid_clusters.tsv");
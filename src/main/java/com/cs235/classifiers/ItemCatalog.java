@@ -0,0 +1,118 @@
+package com.cs235.classifiers;
+
+import com.cs235.Attribute;
+import com.cs235.Features;
+import com.cs235.dataset.EncodedDataset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Numbers every (feature, value) pair of an encoded dataset with a dense item id
+ * item ids are ordered by feature and then by dictionary code, so an itemset is an ascending int[] of item ids
+ */
+class ItemCatalog {
+
+  private final EncodedDataset data;
+  private final int[][] columns;
+  private final int[] offsets;
+  private final int[] itemColumn;
+  private final int[] itemCode;
+
+  ItemCatalog(EncodedDataset data) {
+    this.data = data;
+
+    List<Features> features = data.getFeatures();
+    columns = new int[features.size()][];
+    offsets = new int[features.size()];
+
+    int size = 0;
+    for (int i = 0; i < features.size(); i++) {
+      columns[i] = data.getColumn(features.get(i));
+      offsets[i] = size;
+      size += data.getDictionary(features.get(i)).size();
+    }
+
+    itemColumn = new int[size];
+    itemCode = new int[size];
+    for (int i = 0; i < features.size(); i++) {
+      int dictionarySize = data.getDictionary(features.get(i)).size();
+      for (int code = 0; code < dictionarySize; code++) {
+        itemColumn[offsets[i] + code] = i;
+        itemCode[offsets[i] + code] = code;
+      }
+    }
+  }
+
+  int size() {
+    return itemColumn.length;
+  }
+
+  int item(int column, int code) {
+    return offsets[column] + code;
+  }
+
+  int column(int item) {
+    return itemColumn[item];
+  }
+
+  int code(int item) {
+    return itemCode[item];
+  }
+
+  EncodedDataset getData() {
+    return data;
+  }
+
+  Attribute toAttribute(int item) {
+    Features feature = data.getFeatures().get(itemColumn[item]);
+    return new Attribute(feature, data.getDictionary(feature).decode(itemCode[item]));
+  }
+
+  List<Attribute> toAttributes(int[] itemset) {
+    List<Attribute> attributes = new ArrayList<>(itemset.length);
+    for (int item : itemset) {
+      attributes.add(toAttribute(item));
+    }
+    return attributes;
+  }
+
+  /**
+   * count the rows of a partition containing each of the candidate itemsets
+   * by walking the items of every row through the candidate trie
+   *
+   * @param candidates the candidate itemsets
+   * @param fromRow    the first row of the partition (inclusive)
+   * @param toRow      the last row of the partition (exclusive)
+   * @return the number of matching rows per candidate index
+   */
+  int[] count(CandidateTrie candidates, int fromRow, int toRow) {
+    int[] counts = new int[candidates.size()];
+    int[] rowItems = new int[columns.length];
+    for (int row = fromRow; row < toRow; row++) {
+      for (int i = 0; i < columns.length; i++) {
+        rowItems[i] = offsets[i] + columns[i][row];
+      }
+      candidates.count(rowItems, counts);
+    }
+    return counts;
+  }
+
+  /**
+   * count the rows of every single item in one pass over each column
+   *
+   * @return the number of rows per item id
+   */
+  int[] countItems() {
+    int[] counts = new int[size()];
+    for (int i = 0; i < columns.length; i++) {
+      int[] column = columns[i];
+      int offset = offsets[i];
+      for (int row = 0; row < data.getRowCount(); row++) {
+        counts[offset + column[row]]++;
+      }
+    }
+    return counts;
+  }
+
+}
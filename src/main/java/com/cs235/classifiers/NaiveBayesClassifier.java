@@ -1,14 +1,15 @@
 package com.cs235.classifiers;
 
 import com.cs235.Features;
-import com.cs235.Main;
+import com.cs235.database.ConnectionPool;
 import com.cs235.database.SQLUtils;
 import com.cs235.database.StringTemplate;
+import com.cs235.dataset.EncodedDataset;
+import com.cs235.dataset.ValueDictionary;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
@@ -22,10 +23,20 @@ public class NaiveBayesClassifier extends Classifier {
 
   private static final Map<String, Map<String, AtomicInteger>> accuracyTable = new LinkedHashMap<>();
 
+  private final TrainingSource trainingSource;
   private Map<Integer, Double> severityTypeProbabilities;
 
-  public NaiveBayesClassifier(String tableName) {
-    super(tableName);
+  public NaiveBayesClassifier(PipelineContext context) {
+    this(context, TrainingSource.ENCODED);
+  }
+
+  /**
+   * @param context        the shared datasets
+   * @param trainingSource where the conditional counts of the model are computed
+   */
+  public NaiveBayesClassifier(PipelineContext context, TrainingSource trainingSource) {
+    super(context);
+    this.trainingSource = trainingSource;
   }
 
   /**
@@ -45,9 +56,25 @@ public class NaiveBayesClassifier extends Classifier {
    */
   @Override
   public String execute() throws Exception {
-    createTrainingTestSets(tableName);
-    Map<Integer, Map<String, Map<String, Double>>> trainedProbabilities = train();
-    Double accuracy = executeOnTestData(trainedProbabilities);
+    Map<Integer, Map<String, Map<String, Double>>> trainedProbabilities;
+    Double accuracy;
+    if (context.isEmbedded() && trainingSource != TrainingSource.ENCODED) {
+      throw new IllegalStateException(String.format("Training source %s needs the database tables", trainingSource));
+    }
+    switch (trainingSource) {
+      case SEVERITY_TABLES:
+        trainedProbabilities = train();
+        accuracy = executeOnTestData(trainedProbabilities);
+        break;
+      case GROUPING_SETS:
+        trainedProbabilities = trainGroupingSets();
+        accuracy = executeOnTestData(trainedProbabilities, context.getTestData());
+        break;
+      default:
+        trainedProbabilities = train(context.getTrainingData());
+        accuracy = executeOnTestData(trainedProbabilities, context.getTestData());
+        break;
+    }
 
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     String json = gson.toJson(trainedProbabilities);
@@ -69,7 +96,7 @@ public class NaiveBayesClassifier extends Classifier {
     int trainingTotal = getTotalCount(trainingDataTable);
     for (Map.Entry<Integer, String> entry : severityTables.entrySet()) {
       String countSql = getCount.put("tableName", SQLUtils.escapeIdentifier(entry.getValue())).build();
-      try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
+      try (Connection connection = ConnectionPool.getConnection();
            PreparedStatement ps = connection.prepareStatement(countSql)) {
         ResultSet rs = ps.executeQuery();
         if (rs.next()) {
@@ -116,6 +143,107 @@ public class NaiveBayesClassifier extends Classifier {
     return trainedClassifier;
   }
 
+  /**
+   * FROM TRAINING DATA, IN A SINGLE SCAN
+   * count the severity levels and every attribute value per severity level in one GROUP BY GROUPING SETS query
+   * i.e. GROUPING SETS ((), (Severity), (Severity, Weather), (Severity, Alcohol), ...)
+   * the GROUPING() flags of a result row tell which set it belongs to, so a null attribute value is kept apart from the
+   * rows of the other sets, no per severity tables are created
+   *
+   * @return mapping for each severity level, for each attribute column, for each attribute column value, the probability of P(Severity|X)
+   * @throws Exception
+   */
+  public Map<Integer, Map<String, Map<String, Double>>> trainGroupingSets() throws Exception {
+    String severityField = SQLUtils.escapeIdentifier(Features.SEVERITY_COLUMN.getLabel());
+    List<String> fields = attributes.stream().map(Features::getLabel).map(SQLUtils::escapeIdentifier).collect(Collectors.toList());
+
+    String groupingSetsSql = new StringTemplate("SELECT GROUPING(${severity}), ${groupingFlags}, ${severity}, ${fields}, COUNT(*) " +
+      "FROM ${tableName} GROUP BY GROUPING SETS ((), (${severity}), ${groupingSets}) ORDER BY ${severity}")
+      .put("severity", severityField)
+      .put("groupingFlags", fields.stream().map(field -> "GROUPING(" + field + ")").collect(Collectors.joining(",")))
+      .put("fields", String.join(",", fields))
+      .put("groupingSets", fields.stream().map(field -> "(" + severityField + "," + field + ")").collect(Collectors.joining(",")))
+      .put("tableName", SQLUtils.escapeIdentifier(trainingDataTable)).build();
+
+    // result columns: grouping flag of the severity, grouping flag per attribute, severity, attribute values, count
+    int severityColumn = attributes.size() + 2;
+    int countColumn = 2 * attributes.size() + 3;
+
+    int trainingTotal = 0;
+    Map<Integer, Integer> severityTypeCount = new LinkedHashMap<>();
+    Map<Integer, Map<String, Map<String, Integer>>> valueCounts = new LinkedHashMap<>();
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement ps = connection.prepareStatement(groupingSetsSql)) {
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        int count = rs.getInt(countColumn);
+        if (rs.getInt(1) == 1) {
+          trainingTotal = count;
+          continue;
+        }
+
+        Integer severity = severityLevel(rs.getString(severityColumn));
+        int f = 0;
+        while (f < attributes.size() && rs.getInt(f + 2) == 1) {
+          f++;
+        }
+        if (f == attributes.size()) {
+          severityTypeCount.merge(severity, count, Integer::sum);
+        } else {
+          valueCounts.computeIfAbsent(severity, key -> new LinkedHashMap<>())
+            .computeIfAbsent(attributes.get(f).getLabel(), key -> new LinkedHashMap<>())
+            .merge(rs.getString(f + attributes.size() + 3), count, Integer::sum);
+        }
+      }
+    }
+
+    severityTypeProbabilities = new LinkedHashMap<>();
+    Map<Integer, Map<String, Map<String, Double>>> trainedClassifier = new LinkedHashMap<>();
+    for (Map.Entry<Integer, Integer> entry : severityTypeCount.entrySet()) {
+      Integer severity = entry.getKey();
+      int severityCount = entry.getValue();
+      severityTypeProbabilities.put(severity, (double) severityCount / trainingTotal);
+
+      Map<String, Map<String, Integer>> severityValueCounts = valueCounts.getOrDefault(severity, new LinkedHashMap<>());
+      Map<String, Map<String, Double>> featureMapping = new LinkedHashMap<>();
+      for (Features attribute : attributes) {
+        Map<String, Double> featureProb = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> valueCount : severityValueCounts.getOrDefault(attribute.getLabel(), new LinkedHashMap<>()).entrySet()) {
+          featureProb.put(valueCount.getKey(), (double) valueCount.getValue() / severityCount);
+        }
+        featureMapping.put(attribute.getLabel(), featureProb);
+      }
+      trainedClassifier.put(severity, featureMapping);
+    }
+    return trainedClassifier;
+  }
+
+  /**
+   * FROM ENCODED TRAINING DATA
+   * count every attribute value per severity level in a single pass over each column
+   * and derive the same probabilities as the database driven training
+   *
+   * @param trainingData the encoded training dataset
+   * @return mapping for each severity level, for each attribute column, for each attribute column value, the probability of P(Severity|X)
+   */
+  public Map<Integer, Map<String, Map<String, Double>>> train(EncodedDataset trainingData) {
+    NaiveBayesModel model = new NaiveBayesModel(attributes);
+    model.update(trainingData);
+    return train(model);
+  }
+
+  /**
+   * FROM THE COUNTS OF A MODEL
+   * i.e. a model loaded from a checkpoint and updated with the new records only
+   *
+   * @param model the count based model
+   * @return mapping for each severity level, for each attribute column, for each attribute column value, the probability of P(Severity|X)
+   */
+  public Map<Integer, Map<String, Map<String, Double>>> train(NaiveBayesModel model) {
+    severityTypeProbabilities = model.getSeverityProbabilities();
+    return model.getProbabilities();
+  }
+
   /**
    * for each feature, determine the severity class that the trainedProbabilities would classify as based on Naive Bayes
    *
@@ -139,7 +267,7 @@ public class NaiveBayesClassifier extends Classifier {
           .put("fields", attributes.stream().map(Features::getLabel).map(SQLUtils::escapeIdentifier).collect(Collectors.joining(",")))
           .put("tableName", SQLUtils.escapeIdentifier(severityTable)).build();
 
-        try (Connection connection = DriverManager.getConnection(Main.POSTGRES_URL);
+        try (Connection connection = ConnectionPool.getConnection();
              PreparedStatement ps = connection.prepareStatement(testDataSql)) {
           ResultSet rs = ps.executeQuery();
           while (rs.next()) {
@@ -162,18 +290,7 @@ public class NaiveBayesClassifier extends Classifier {
               classifiedProperly++;
             }
 
-            if (accuracyTable.containsKey(actualSeverity.toString())) {
-              Map<String, AtomicInteger> predicted = accuracyTable.get(actualSeverity.toString());
-              if (predicted.containsKey(classifiedSeverity.getKey().toString())) {
-                predicted.get(classifiedSeverity.getKey().toString()).incrementAndGet();
-              } else {
-                predicted.put(classifiedSeverity.getKey().toString(), new AtomicInteger(1));
-              }
-            } else {
-              Map<String, AtomicInteger> predicted = new LinkedHashMap<>();
-              predicted.put(classifiedSeverity.getKey().toString(), new AtomicInteger(1));
-              accuracyTable.put(actualSeverity.toString(), predicted);
-            }
+            recordAccuracy(actualSeverity, classifiedSeverity.getKey());
 
           }
         }
@@ -185,6 +302,70 @@ public class NaiveBayesClassifier extends Classifier {
     return (double) classifiedProperly / totalTestData;
   }
 
+  /**
+   * for each record of the encoded test dataset, determine the severity class that the trainedProbabilities would classify as based on Naive Bayes
+   * the model is compiled to log probability tables (see CompiledNaiveBayes) and the records are scored into a confusion matrix
+   *
+   * @param trainedProbabilities the probabilities for each attribute value given a certain severity level
+   * @param testData             the encoded test dataset
+   * @return the accuracy of the classifier
+   */
+  public Double executeOnTestData(Map<Integer, Map<String, Map<String, Double>>> trainedProbabilities, EncodedDataset testData) {
+    CompiledNaiveBayes compiled = CompiledNaiveBayes.compile(trainedProbabilities, severityTypeProbabilities, attributes, testData);
+    int[][] confusion = compiled.confusionMatrix(testData, attributes);
+
+    // Did Naive Bayes classify it properly?
+    int classifiedProperly = 0;
+    ValueDictionary severityDictionary = testData.getDictionary(Features.SEVERITY_COLUMN);
+    for (int actual = 0; actual < confusion.length; actual++) {
+      Integer actualSeverity = severityLevel(severityDictionary.decode(actual));
+      for (int predicted = 0; predicted < compiled.getSeverityCount(); predicted++) {
+        if (confusion[actual][predicted] == 0) {
+          continue;
+        }
+        Integer classifiedSeverity = compiled.getSeverityLevel(predicted);
+        if (classifiedSeverity.equals(actualSeverity)) {
+          classifiedProperly += confusion[actual][predicted];
+        }
+        recordAccuracy(actualSeverity, classifiedSeverity, confusion[actual][predicted]);
+      }
+    }
+
+    return (double) classifiedProperly / testData.getRowCount();
+  }
+
+  /**
+   * count the classification of a record in the accuracy table (actual severity -> predicted severity -> count)
+   *
+   * @param actualSeverity     the severity of the record
+   * @param classifiedSeverity the severity the classifier predicted
+   */
+  private static void recordAccuracy(Integer actualSeverity, Integer classifiedSeverity) {
+    recordAccuracy(actualSeverity, classifiedSeverity, 1);
+  }
+
+  /**
+   * count the classifications of records in the accuracy table (actual severity -> predicted severity -> count)
+   *
+   * @param actualSeverity     the severity of the records
+   * @param classifiedSeverity the severity the classifier predicted
+   * @param count              the number of records
+   */
+  private static void recordAccuracy(Integer actualSeverity, Integer classifiedSeverity, int count) {
+    if (accuracyTable.containsKey(actualSeverity.toString())) {
+      Map<String, AtomicInteger> predicted = accuracyTable.get(actualSeverity.toString());
+      if (predicted.containsKey(classifiedSeverity.toString())) {
+        predicted.get(classifiedSeverity.toString()).addAndGet(count);
+      } else {
+        predicted.put(classifiedSeverity.toString(), new AtomicInteger(count));
+      }
+    } else {
+      Map<String, AtomicInteger> predicted = new LinkedHashMap<>();
+      predicted.put(classifiedSeverity.toString(), new AtomicInteger(count));
+      accuracyTable.put(actualSeverity.toString(), predicted);
+    }
+  }
+
   /**
    * for this record, get all of the probabilities from the trained data and generate the final probability given the severity level
    *
@@ -207,4 +388,16 @@ public class NaiveBayesClassifier extends Classifier {
     return p * severityTypeProbabilities.get(severity);
   }
 
+  /**
+   * Where the Naive Bayes model is trained from
+   * ENCODED - count the columns of the encoded training dataset in memory
+   * SEVERITY_TABLES - create a table per severity level and query every attribute of every table
+   * GROUPING_SETS - count everything in a single GROUPING SETS scan of the training table
+   */
+  public enum TrainingSource {
+    ENCODED,
+    SEVERITY_TABLES,
+    GROUPING_SETS
+  }
+
 }
@@ -0,0 +1,220 @@
+package com.cs235.classifiers;
+
+import com.cs235.Features;
+import com.cs235.dataset.EncodedDataset;
+import com.cs235.dataset.ValueDictionary;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Count based state of a Naive Bayes model
+ * holds the number of records per severity level and per severity level, attribute and attribute value,
+ * a batch of new records is added to the counts in a single pass over the batch, the probabilities are derived from the counts when requested
+ * <p>
+ * the counts are checkpointed to a file, so the model can be refreshed with the new records only instead of being retrained
+ */
+public class NaiveBayesModel {
+
+  private static final int CHECKPOINT_MAGIC = 0x4e424d31; // NBM1
+
+  private final List<Features> features;
+  private long total;
+  private final Map<Integer, Long> severityCounts = new LinkedHashMap<>();
+  private final Map<Integer, Map<String, Map<String, Long>>> valueCounts = new LinkedHashMap<>();
+
+  /**
+   * @param features the attributes of the model
+   */
+  public NaiveBayesModel(List<Features> features) {
+    this.features = features;
+  }
+
+  /**
+   * add the records of a batch to the counts
+   *
+   * @param batch the encoded records, having the severity and every attribute of the model
+   */
+  public void update(EncodedDataset batch) {
+    int[] rows = new int[batch.getRowCount()];
+    for (int row = 0; row < rows.length; row++) {
+      rows[row] = row;
+    }
+    update(batch, rows);
+  }
+
+  /**
+   * add some records of a dataset to the counts
+   *
+   * @param batch the encoded records, having the severity and every attribute of the model
+   * @param rows  the row indexes of the records to add (i.e. the training rows of a fold)
+   */
+  public synchronized void update(EncodedDataset batch, int[] rows) {
+    int[] severityColumn = batch.getColumn(Features.SEVERITY_COLUMN);
+    ValueDictionary severityDictionary = batch.getDictionary(Features.SEVERITY_COLUMN);
+    int severities = severityDictionary.size();
+
+    int[] batchSeverityCounts = new int[severities];
+    for (int row : rows) {
+      batchSeverityCounts[severityColumn[row]]++;
+    }
+
+    // counts[attribute][severity][value] of the batch, merged into the model counts once per distinct value
+    int[][][] counts = new int[features.size()][severities][];
+    for (int f = 0; f < features.size(); f++) {
+      int[] column = batch.getColumn(features.get(f));
+      int values = batch.getDictionary(features.get(f)).size();
+      for (int severity = 0; severity < severities; severity++) {
+        counts[f][severity] = new int[values];
+      }
+      for (int row : rows) {
+        counts[f][severityColumn[row]][column[row]]++;
+      }
+    }
+
+    total += rows.length;
+    for (int severity = 0; severity < severities; severity++) {
+      if (batchSeverityCounts[severity] == 0) {
+        continue;
+      }
+      Integer severityLevel = Classifier.severityLevel(severityDictionary.decode(severity));
+      severityCounts.merge(severityLevel, (long) batchSeverityCounts[severity], Long::sum);
+
+      Map<String, Map<String, Long>> featureCounts = valueCounts.computeIfAbsent(severityLevel, key -> new LinkedHashMap<>());
+      for (int f = 0; f < features.size(); f++) {
+        ValueDictionary dictionary = batch.getDictionary(features.get(f));
+        Map<String, Long> featureValueCounts = featureCounts.computeIfAbsent(features.get(f).getLabel(), key -> new LinkedHashMap<>());
+        for (int value = 0; value < counts[f][severity].length; value++) {
+          if (counts[f][severity][value] > 0) {
+            featureValueCounts.merge(dictionary.decode(value), (long) counts[f][severity][value], Long::sum);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return mapping for each severity level, for each attribute column, for each attribute column value, the probability of P(X|Severity)
+   */
+  public synchronized Map<Integer, Map<String, Map<String, Double>>> getProbabilities() {
+    Map<Integer, Map<String, Map<String, Double>>> probabilities = new LinkedHashMap<>();
+    for (Map.Entry<Integer, Long> entry : severityCounts.entrySet()) {
+      long severityCount = entry.getValue();
+      Map<String, Map<String, Long>> featureCounts = valueCounts.get(entry.getKey());
+
+      Map<String, Map<String, Double>> featureMapping = new LinkedHashMap<>();
+      for (Features feature : features) {
+        Map<String, Double> featureProb = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> valueCount : featureCounts.getOrDefault(feature.getLabel(), new LinkedHashMap<>()).entrySet()) {
+          featureProb.put(valueCount.getKey(), (double) valueCount.getValue() / severityCount);
+        }
+        featureMapping.put(feature.getLabel(), featureProb);
+      }
+      probabilities.put(entry.getKey(), featureMapping);
+    }
+    return probabilities;
+  }
+
+  /**
+   * @return mapping of each severity level to the probability of that severity
+   */
+  public synchronized Map<Integer, Double> getSeverityProbabilities() {
+    Map<Integer, Double> probabilities = new LinkedHashMap<>();
+    for (Map.Entry<Integer, Long> entry : severityCounts.entrySet()) {
+      probabilities.put(entry.getKey(), (double) entry.getValue() / total);
+    }
+    return probabilities;
+  }
+
+  public synchronized long getTotal() {
+    return total;
+  }
+
+  /**
+   * write the counts to the file, through a temporary file so an interrupted checkpoint keeps the previous one
+   *
+   * @param file the checkpoint file
+   * @throws IOException
+   */
+  public synchronized void save(File file) throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+      out.writeInt(CHECKPOINT_MAGIC);
+      out.writeInt(features.size());
+      for (Features feature : features) {
+        out.writeUTF(feature.name());
+      }
+      out.writeLong(total);
+      out.writeInt(severityCounts.size());
+      for (Map.Entry<Integer, Long> entry : severityCounts.entrySet()) {
+        out.writeInt(entry.getKey());
+        out.writeLong(entry.getValue());
+        Map<String, Map<String, Long>> featureCounts = valueCounts.get(entry.getKey());
+        for (Features feature : features) {
+          Map<String, Long> featureValueCounts = featureCounts.getOrDefault(feature.getLabel(), new LinkedHashMap<>());
+          out.writeInt(featureValueCounts.size());
+          for (Map.Entry<String, Long> valueCount : featureValueCounts.entrySet()) {
+            // null is a valid attribute value
+            out.writeBoolean(valueCount.getKey() != null);
+            if (valueCount.getKey() != null) {
+              out.writeUTF(valueCount.getKey());
+            }
+            out.writeLong(valueCount.getValue());
+          }
+        }
+      }
+    }
+    try {
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      temporary.delete();
+    }
+  }
+
+  /**
+   * read the counts of a checkpoint
+   *
+   * @param file the checkpoint file
+   * @return the model
+   * @throws IOException
+   */
+  public static NaiveBayesModel load(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != CHECKPOINT_MAGIC) {
+        throw new IOException(String.format("%s is not a Naive Bayes checkpoint", file));
+      }
+      Features[] features = new Features[in.readInt()];
+      for (int f = 0; f < features.length; f++) {
+        features[f] = Features.valueOf(in.readUTF());
+      }
+
+      NaiveBayesModel model = new NaiveBayesModel(Arrays.asList(features));
+      model.total = in.readLong();
+      int severities = in.readInt();
+      for (int s = 0; s < severities; s++) {
+        Integer severityLevel = in.readInt();
+        model.severityCounts.put(severityLevel, in.readLong());
+        Map<String, Map<String, Long>> featureCounts = new LinkedHashMap<>();
+        for (Features feature : features) {
+          Map<String, Long> featureValueCounts = new LinkedHashMap<>();
+          int values = in.readInt();
+          for (int v = 0; v < values; v++) {
+            String value = in.readBoolean() ? in.readUTF() : null;
+            featureValueCounts.put(value, in.readLong());
+          }
+          featureCounts.put(feature.getLabel(), featureValueCounts);
+        }
+        model.valueCounts.put(severityLevel, featureCounts);
+      }
+      return model;
+    }
+  }
+
+}
@@ -0,0 +1,52 @@
+package com.cs235.classifiers;
+
+import com.cs235.CSVImporter;
+import com.cs235.Timers;
+import com.cs235.dataset.EncodedDataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Refreshes a checkpointed Naive Bayes model with a batch of new records, without retraining on the records it already counted
+ * the checkpoint is created by the first batch (i.e. the whole dataset) and every later batch is added to its counts
+ * <p>
+ * the batch is parsed without a database, its values are normalized the same as the values of an imported table
+ * (see CSVImporter.importToMemory), so the counts of both match
+ */
+public class NaiveBayesRefresh {
+
+  /**
+   * @param args [0] [1] - Naive Bayes checkpoint file, created when missing | CSV of the new records, with the columns of the dataset
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    File checkpoint = new File(args[0]);
+    File batchFile = new File(args[1]);
+
+    Timers timer = Timers.start();
+    EncodedDataset batch = CSVImporter.importToMemory(batchFile, CSVImporter.DEFAULT_SAMPLE_ROWS, Collections.emptyList()).getData();
+    NaiveBayesModel model = refresh(checkpoint, batch);
+
+    System.out.println(String.format("added %s records of %s to %s, the model holds %s records (%s ms)",
+      batch.getRowCount(), batchFile, checkpoint, model.getTotal(), timer.elapsedMillis()));
+    System.out.println(String.format("severity probabilities: %s", model.getSeverityProbabilities()));
+  }
+
+  /**
+   * load the checkpoint (a new model of the classifier attributes when there is none), add the batch and save it again
+   *
+   * @param checkpoint the checkpoint file
+   * @param batch      the new records, having the severity and every attribute of the model
+   * @return the refreshed model
+   * @throws IOException
+   */
+  public static NaiveBayesModel refresh(File checkpoint, EncodedDataset batch) throws IOException {
+    NaiveBayesModel model = checkpoint.isFile() ? NaiveBayesModel.load(checkpoint) : new NaiveBayesModel(Classifier.attributes);
+    model.update(batch);
+    model.save(checkpoint);
+    return model;
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.cs235.classifiers;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the support of candidate itemsets over partitions of the transactions on a fork/join pool
+ * every partition counts into its own int[] (one slot per candidate) and the partition counts are summed when joined,
+ * so the result is identical to a sequential scan
+ */
+class ParallelSupportCounter {
+
+  private static final int MIN_PARTITION_ROWS = 4_096;
+
+  private final ItemCatalog catalog;
+  private final ForkJoinPool pool;
+
+  ParallelSupportCounter(ItemCatalog catalog, ForkJoinPool pool) {
+    this.catalog = catalog;
+    this.pool = pool;
+  }
+
+  /**
+   * @param candidates the candidate itemsets
+   * @return the number of rows containing each candidate, by candidate index
+   */
+  int[] count(CandidateTrie candidates) {
+    int rows = catalog.getData().getRowCount();
+    int partitionRows = Math.max(MIN_PARTITION_ROWS, rows / (pool.getParallelism() * 4));
+    return pool.invoke(new CountTask(candidates, 0, rows, partitionRows));
+  }
+
+  private class CountTask extends RecursiveTask<int[]> {
+    private final CandidateTrie candidates;
+    private final int fromRow;
+    private final int toRow;
+    private final int partitionRows;
+
+    private CountTask(CandidateTrie candidates, int fromRow, int toRow, int partitionRows) {
+      this.candidates = candidates;
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+      this.partitionRows = partitionRows;
+    }
+
+    @Override
+    protected int[] compute() {
+      if (toRow - fromRow <= partitionRows) {
+        return catalog.count(candidates, fromRow, toRow);
+      }
+
+      int middle = (fromRow + toRow) >>> 1;
+      CountTask left = new CountTask(candidates, fromRow, middle, partitionRows);
+      CountTask right = new CountTask(candidates, middle, toRow, partitionRows);
+      left.fork();
+      int[] counts = right.compute();
+      int[] leftCounts = left.join();
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += leftCounts[i];
+      }
+      return counts;
+    }
+  }
+
+}
@@ -0,0 +1,441 @@
+package com.cs235.classifiers;
+
+import com.cs235.CSVImporter;
+import com.cs235.Features;
+import com.cs235.FileFingerprint;
+import com.cs235.database.ConnectionPool;
+import com.cs235.database.IdGenerator;
+import com.cs235.database.SQLUtils;
+import com.cs235.database.StringTemplate;
+import com.cs235.database.TableRegistry;
+import com.cs235.dataset.EmbeddedTable;
+import com.cs235.dataset.EncodedDataset;
+import com.cs235.dataset.ValueDictionary;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The dataset shared by every algorithm of a run
+ * the input is imported, split into training and test tables and loaded into memory exactly once,
+ * so all classifiers work on (and report accuracy for) the same split
+ * the intermediate tables of the run (the split and the per severity tables of the classifiers) are registered with the context
+ * and dropped when it is closed
+ * <p>
+ * an embedded context parses the input into memory instead, it has no tables and is split by the same objectid hash
+ * as the seeded views, so a seed gives the same split with and without the database
+ * <p>
+ * both read the rows in objectid order (see EncodedDataset.load), so the dictionary codes, and with them the order of
+ * the probabilities, itemsets and tree branches, are the same with and without the database (for unique objectids)
+ */
+public class PipelineContext implements AutoCloseable {
+
+  private static final int TRAINING_PERCENT = 80;
+  private static final long SPLIT_MODULUS = 2_147_483_647L; // 2^31 - 1, keeps the products within a bigint
+  private static final long SPLIT_MULTIPLIER = 1_103_515_245L;
+
+  private final String tableName;
+  private final String trainingDataTable;
+  private final String testDataTable;
+  private final EncodedDataset trainingData;
+  private final EncodedDataset testData;
+  private final EmbeddedTable embeddedTable;
+  private final TableRegistry tables;
+
+  private PipelineContext(String tableName, String trainingDataTable, String testDataTable, EncodedDataset trainingData, EncodedDataset testData,
+                          EmbeddedTable embeddedTable, TableRegistry tables) {
+    this.tableName = tableName;
+    this.trainingDataTable = trainingDataTable;
+    this.testDataTable = testDataTable;
+    this.trainingData = trainingData;
+    this.testData = testData;
+    this.embeddedTable = embeddedTable;
+    this.tables = tables;
+  }
+
+  /**
+   * Import the columns of the CSV file used by the pipeline into a database table (over every pooled connection), or reuse the table
+   * of a previous import of the same content, and prepare the split datasets
+   *
+   * @param file the input CSV dataset
+   * @return the context of the imported dataset
+   * @throws Exception
+   */
+  public static PipelineContext create(File file) throws Exception {
+    return create(CSVImporter.importToCatalogedTable(file, CSVImporter.DEFAULT_SAMPLE_ROWS, getImportColumns(), ConnectionPool.get().getMaxSize()));
+  }
+
+  /**
+   * Import the columns of the CSV file used by the pipeline into a database table (over every pooled connection), or reuse the table
+   * of a previous import of the same content, and prepare the datasets of a reproducible split
+   *
+   * @param file the input CSV dataset
+   * @param seed the seed of the objectid hash assigning the rows to the training or test dataset
+   * @return the context of the imported dataset
+   * @throws Exception
+   */
+  public static PipelineContext create(File file, long seed) throws Exception {
+    return create(CSVImporter.importToCatalogedTable(file, CSVImporter.DEFAULT_SAMPLE_ROWS, getImportColumns(), ConnectionPool.get().getMaxSize()), seed);
+  }
+
+  /**
+   * Parse the CSV file into memory without a database and prepare the datasets of a random split
+   *
+   * @param file the input CSV dataset
+   * @return the embedded context of the dataset
+   * @throws Exception
+   */
+  public static PipelineContext createEmbedded(File file) throws Exception {
+    return createEmbedded(file, new Random().nextLong());
+  }
+
+  /**
+   * Parse the CSV file into memory without a database and prepare the datasets of a reproducible split,
+   * a row is on the same side of the split as in the views of a database context with the same seed
+   * the rows of each side are encoded in objectid order, the order the views are loaded in
+   *
+   * @param file the input CSV dataset
+   * @param seed the seed of the objectid hash assigning the rows to the training or test dataset
+   * @return the embedded context of the dataset
+   * @throws Exception
+   */
+  public static PipelineContext createEmbedded(File file, long seed) throws Exception {
+    return createEmbedded(CSVImporter.importToMemory(file, CSVImporter.DEFAULT_SAMPLE_ROWS, GridBasedClustering.COLUMNS), seed);
+  }
+
+  /**
+   * Memory map the snapshot of the CSV file when it is still current, otherwise parse the CSV file into memory and
+   * snapshot it for the next run, and prepare the datasets of a reproducible split
+   *
+   * @param file     the input CSV dataset
+   * @param seed     the seed of the objectid hash assigning the rows to the training or test dataset
+   * @param snapshot the snapshot file of the CSV file
+   * @return the embedded context of the dataset
+   * @throws Exception
+   */
+  public static PipelineContext createEmbedded(File file, long seed, File snapshot) throws Exception {
+    return createEmbedded(importEmbedded(file, snapshot), seed);
+  }
+
+  /**
+   * Memory map the snapshot of the CSV file when it is still current, otherwise parse the CSV file into memory and
+   * snapshot it for the next run
+   *
+   * @param file     the input CSV dataset
+   * @param snapshot the snapshot file of the CSV file
+   * @return the in-memory dataset
+   * @throws Exception
+   */
+  public static EmbeddedTable importEmbedded(File file, File snapshot) throws Exception {
+    EmbeddedTable table = EmbeddedTable.loadSnapshot(snapshot, file, GridBasedClustering.COLUMNS);
+    if (table != null) {
+      System.out.println(String.format(" loaded snapshot %s (%s rows)", snapshot, table.getRowCount()));
+    } else {
+      FileFingerprint fingerprint = FileFingerprint.of(file);
+      table = CSVImporter.importToMemory(file, CSVImporter.DEFAULT_SAMPLE_ROWS, GridBasedClustering.COLUMNS);
+      if (table.saveSnapshot(snapshot, fingerprint)) {
+        System.out.println(String.format(" wrote snapshot %s (%s rows)", snapshot, table.getRowCount()));
+      } else {
+        System.out.println(String.format(" skipped snapshot %s, %s rows do not fit in a 2GB snapshot", snapshot, table.getRowCount()));
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Prepare the datasets of a reproducible split of an in-memory dataset
+   *
+   * @param table the in-memory dataset
+   * @param seed  the seed of the objectid hash assigning the rows to the training or test dataset
+   * @return the embedded context of the dataset
+   */
+  public static PipelineContext createEmbedded(EmbeddedTable table, long seed) {
+    EncodedDataset data = table.getData();
+
+    int[] trainingRows = new int[data.getRowCount()];
+    int[] testRows = new int[data.getRowCount()];
+    int trainingCount = 0;
+    int testCount = 0;
+    for (int row : rowsByObjectid(data)) {
+      String oid = data.getValue(Features.OID_COLUMN, row);
+      if (oid == null) {
+        continue; // the hash of a null objectid is null, the row is in neither view
+      }
+      if (splitBucket(Long.parseLong(oid), seed) < TRAINING_PERCENT) {
+        trainingRows[trainingCount++] = row;
+      } else {
+        testRows[testCount++] = row;
+      }
+    }
+
+    EncodedDataset trainingData = data.select(Classifier.allAttributes, Arrays.copyOf(trainingRows, trainingCount));
+    EncodedDataset testData = data.select(Arrays.copyOf(testRows, testCount), trainingData);
+
+    return new PipelineContext(null, null, null, trainingData, testData, table, new TableRegistry());
+  }
+
+  /**
+   * the rows in the order ORDER BY objectid reads them from a table: ascending, nulls last,
+   * and rows of the same objectid in file order
+   *
+   * @param data the dataset, with the objectid
+   * @return the row indexes, sorted
+   */
+  static int[] rowsByObjectid(EncodedDataset data) {
+    ValueDictionary dictionary = data.getDictionary(Features.OID_COLUMN);
+    Long[] objectids = new Long[dictionary.size()];
+    for (int code = 0; code < objectids.length; code++) {
+      String oid = dictionary.decode(code);
+      objectids[code] = oid == null ? null : Long.parseLong(oid);
+    }
+    int[] column = data.getColumn(Features.OID_COLUMN);
+    Integer[] rows = new Integer[data.getRowCount()];
+    for (int row = 0; row < rows.length; row++) {
+      rows[row] = row;
+    }
+    // a stable sort, so the rows of the same objectid keep file order
+    Arrays.sort(rows, Comparator.comparing((Integer row) -> objectids[column[row]], Comparator.nullsLast(Comparator.naturalOrder())));
+    return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * the split hash of an objectid, computed the same as the bucket of the seeded views
+   * (a multiplicative hash modulo a prime with xor-shift mixing, so every step fits a bigint without overflow)
+   *
+   * @param objectid the objectid of a row
+   * @param seed     the seed of the split
+   * @return the bucket of the row, from 0 to 99
+   */
+  static int splitBucket(long objectid, long seed) {
+    long hash = Math.floorMod(objectid ^ seed, SPLIT_MODULUS) * SPLIT_MULTIPLIER % SPLIT_MODULUS;
+    hash = (hash ^ (hash >> 16)) * SPLIT_MULTIPLIER % SPLIT_MODULUS;
+    return (int) ((hash ^ (hash >> 16)) % 100);
+  }
+
+  /**
+   * @return the columns read by the classifiers (every feature) and the clustering
+   */
+  public static List<String> getImportColumns() {
+    List<String> columns = new ArrayList<>();
+    for (Features feature : Features.values()) {
+      columns.add(feature.getLabel());
+    }
+    columns.addAll(GridBasedClustering.COLUMNS);
+    return columns;
+  }
+
+  /**
+   * Split the dataset table into training and test tables and load both into memory
+   * the test dataset shares the dictionaries of the training dataset
+   *
+   * @param tableName the input dataset table
+   * @return the context of the dataset
+   * @throws Exception
+   */
+  public static PipelineContext create(String tableName) throws Exception {
+    String trainingDataTable = IdGenerator.generate("training_");
+    String testDataTable = IdGenerator.generate("test_");
+    TableRegistry tables = new TableRegistry();
+    try {
+      createTrainingTestSets(tableName, trainingDataTable, testDataTable, tables);
+      return load(tableName, trainingDataTable, testDataTable, tables);
+    } catch (Exception e) {
+      dropAfterFailure(tables, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Split the dataset table into training and test views by a seeded hash of the objectid and load both into memory
+   * the same seed always assigns a row to the same side, and no rows are copied
+   *
+   * @param tableName the input dataset table
+   * @param seed      the seed of the objectid hash
+   * @return the context of the dataset
+   * @throws Exception
+   */
+  public static PipelineContext create(String tableName, long seed) throws Exception {
+    String trainingDataTable = IdGenerator.generate("training_");
+    String testDataTable = IdGenerator.generate("test_");
+    TableRegistry tables = new TableRegistry();
+    try {
+      createTrainingTestViews(tableName, trainingDataTable, testDataTable, seed, tables);
+      return load(tableName, trainingDataTable, testDataTable, tables);
+    } catch (Exception e) {
+      dropAfterFailure(tables, e);
+      throw e;
+    }
+  }
+
+  private static PipelineContext load(String tableName, String trainingDataTable, String testDataTable, TableRegistry tables) throws Exception {
+    EncodedDataset trainingData = EncodedDataset.load(trainingDataTable, Classifier.allAttributes);
+    EncodedDataset testData = EncodedDataset.load(testDataTable, trainingData);
+
+    return new PipelineContext(tableName, trainingDataTable, testDataTable, trainingData, testData, null, tables);
+  }
+
+  private static void dropAfterFailure(TableRegistry tables, Exception failure) {
+    try {
+      tables.close();
+    } catch (Exception e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Create two separate (unlogged) tables randomly with 80% of the data in the training dataset and 20% in the test dataset
+   *
+   * @param tableName         the input dataset table to select from
+   * @param trainingDataTable the training table to create
+   * @param testDataTable     the test table to create
+   * @param tables            the registry of the tables to drop after the run
+   * @throws Exception
+   */
+  private static void createTrainingTestSets(String tableName, String trainingDataTable, String testDataTable, TableRegistry tables) throws Exception {
+
+    String trainingSql = new StringTemplate("CREATE UNLOGGED TABLE ${newTable} AS SELECT * FROM ${table} WHERE (random() <= 0.80)")
+      .put("newTable", SQLUtils.escapeIdentifier(trainingDataTable))
+      .put("table", SQLUtils.escapeIdentifier(tableName))
+      .build();
+
+    String testSql = new StringTemplate("CREATE UNLOGGED TABLE ${newTable} AS SELECT * FROM ${table} WHERE ${oid} NOT IN (SELECT ${oid} FROM ${trainingTable})")
+      .put("newTable", SQLUtils.escapeIdentifier(testDataTable))
+      .put("table", SQLUtils.escapeIdentifier(tableName))
+      .put("oid", SQLUtils.escapeIdentifier(Features.OID_COLUMN.getLabel()))
+      .put("trainingTable", SQLUtils.escapeIdentifier(trainingDataTable))
+      .build();
+
+    tables.registerTable(trainingDataTable);
+    tables.registerTable(testDataTable);
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement trainPs = connection.prepareStatement(trainingSql);
+         PreparedStatement testPs = connection.prepareStatement(testSql)) {
+      trainPs.execute();
+      testPs.execute();
+    }
+  }
+
+  /**
+   * Create two views on the dataset table, a row is in the training view when its objectid hashes (see splitBucket) to one of the
+   * first 80 of 100 buckets and in the test view otherwise, both views are complementary predicates on the same table
+   * so the test rows are selected without an anti-join against the training rows
+   *
+   * @param tableName         the input dataset table to select from
+   * @param trainingDataTable the training view to create
+   * @param testDataTable     the test view to create
+   * @param seed              the seed of the objectid hash
+   * @param tables            the registry of the views to drop after the run
+   * @throws Exception
+   */
+  private static void createTrainingTestViews(String tableName, String trainingDataTable, String testDataTable, long seed, TableRegistry tables) throws Exception {
+
+    StringTemplate viewTemplate = new StringTemplate("CREATE VIEW ${newView} AS SELECT * FROM ${table} WHERE ${bucket} ${comparison} ${trainingPercent}")
+      .put("table", SQLUtils.escapeIdentifier(tableName))
+      .put("bucket", splitBucketSql(SQLUtils.escapeIdentifier(Features.OID_COLUMN.getLabel()), seed))
+      .put("trainingPercent", TRAINING_PERCENT);
+    String trainingSql = viewTemplate.put("newView", SQLUtils.escapeIdentifier(trainingDataTable)).put("comparison", "<").build();
+    String testSql = viewTemplate.put("newView", SQLUtils.escapeIdentifier(testDataTable)).put("comparison", ">=").build();
+
+    tables.registerView(trainingDataTable);
+    tables.registerView(testDataTable);
+    try (Connection connection = ConnectionPool.getConnection();
+         PreparedStatement trainPs = connection.prepareStatement(trainingSql);
+         PreparedStatement testPs = connection.prepareStatement(testSql)) {
+      trainPs.execute();
+      testPs.execute();
+    }
+  }
+
+  /**
+   * the split bucket as an SQL expression, the steps of splitBucket
+   * every operator is parenthesized as # and >> bind looser than * and % in PostgreSQL
+   *
+   * @param objectid the SQL expression of the objectid
+   * @param seed     the seed of the split
+   * @return the expression of the bucket of the row, from 0 to 99 (null for a null objectid)
+   */
+  static String splitBucketSql(String objectid, long seed) {
+    String key = new StringTemplate("((((${oid}::bigint # (${seed})::bigint) % ${modulus}) + ${modulus}) % ${modulus})")
+      .put("oid", objectid)
+      .put("seed", seed)
+      .put("modulus", SPLIT_MODULUS)
+      .build();
+    StringTemplate mix = new StringTemplate("((${hash} * ${multiplier}) % ${modulus})")
+      .put("multiplier", SPLIT_MULTIPLIER)
+      .put("modulus", SPLIT_MODULUS);
+    String hash = mix.put("hash", key).build();
+    hash = mix.put("hash", String.format("(%s # (%s >> 16))", hash, hash)).build();
+    return String.format("((%s # (%s >> 16)) %% 100)", hash, hash);
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public String getTrainingDataTable() {
+    return trainingDataTable;
+  }
+
+  public String getTestDataTable() {
+    return testDataTable;
+  }
+
+  public EncodedDataset getTrainingData() {
+    return trainingData;
+  }
+
+  public EncodedDataset getTestData() {
+    return testData;
+  }
+
+  /**
+   * @return the registry of the intermediate tables of the run
+   */
+  public TableRegistry getTables() {
+    return tables;
+  }
+
+  /**
+   * drop the intermediate tables of the run, the imported dataset table is kept for reuse
+   *
+   * @throws Exception
+   */
+  @Override
+  public void close() throws Exception {
+    tables.close();
+  }
+
+  /**
+   * @return whether the dataset is held in memory without database tables
+   */
+  public boolean isEmbedded() {
+    return embeddedTable != null;
+  }
+
+  /**
+   * @return the in-memory dataset of an embedded context, null otherwise
+   */
+  public EmbeddedTable getEmbeddedTable() {
+    return embeddedTable;
+  }
+
+  /**
+   * load every record of the dataset (in objectid order) with the severity and every attribute
+   *
+   * @return the encoded dataset, with its own dictionaries
+   * @throws Exception
+   */
+  public EncodedDataset loadDataset() throws Exception {
+    if (embeddedTable == null) {
+      return EncodedDataset.load(tableName, Classifier.allAttributes);
+    }
+    return embeddedTable.getData().select(Classifier.allAttributes, rowsByObjectid(embeddedTable.getData()));
+  }
+
+}
@@ -0,0 +1,215 @@
+package com.cs235.database;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of PostgreSQL connections shared by the importer and all classifiers
+ * at most maxSize connections are open at once, idle connections are validated before they are handed out
+ * closing a pooled connection returns it to the pool instead of closing the physical connection
+ */
+public final class ConnectionPool implements AutoCloseable {
+
+  private static final long CHECKOUT_TIMEOUT_SECONDS = 60;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private static volatile ConnectionPool instance;
+
+  private final String url;
+  private final int maxSize;
+  private final BlockingQueue<Connection> idle;
+  private final Semaphore permits;
+
+  private final AtomicLong checkouts = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+  private final AtomicLong opened = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+
+  private volatile boolean shutdown;
+
+  private ConnectionPool(String url, int maxSize) {
+    this.url = url;
+    this.maxSize = maxSize;
+    idle = new LinkedBlockingQueue<>(maxSize);
+    permits = new Semaphore(maxSize, true);
+  }
+
+  /**
+   * create the shared pool, replacing (and closing) any previously initialized pool
+   *
+   * @param url     the JDBC url of the database
+   * @param maxSize the maximum number of open connections
+   * @return the shared pool
+   */
+  public static synchronized ConnectionPool initialize(String url, int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Pool size must be at least 1");
+    }
+    if (instance != null) {
+      instance.close();
+    }
+    instance = new ConnectionPool(url, maxSize);
+    return instance;
+  }
+
+  public static ConnectionPool get() {
+    ConnectionPool pool = instance;
+    if (pool == null) {
+      throw new IllegalStateException("Connection pool has not been initialized");
+    }
+    return pool;
+  }
+
+  /**
+   * check out a connection from the shared pool, it must be closed to be returned to the pool
+   *
+   * @return a pooled connection
+   * @throws SQLException
+   */
+  public static Connection getConnection() throws SQLException {
+    return get().checkout();
+  }
+
+  public Connection checkout() throws SQLException {
+    if (shutdown) {
+      throw new SQLException("Connection pool has been closed");
+    }
+    long start = System.nanoTime();
+    try {
+      if (!permits.tryAcquire(CHECKOUT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new SQLException(String.format("Timed out after %s seconds waiting for one of %s pooled connections", CHECKOUT_TIMEOUT_SECONDS, maxSize));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for a pooled connection", e);
+    }
+
+    try {
+      Connection connection;
+      while ((connection = idle.poll()) != null) {
+        if (isValid(connection)) {
+          return wrap(connection, start);
+        }
+        discard(connection);
+      }
+      connection = DriverManager.getConnection(url);
+      opened.incrementAndGet();
+      return wrap(connection, start);
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private Connection wrap(Connection connection, long start) {
+    long waited = System.nanoTime() - start;
+    checkouts.incrementAndGet();
+    totalWaitNanos.addAndGet(waited);
+    maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+    boolean[] closed = {false};
+    return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "close":
+          if (!closed[0]) {
+            closed[0] = true;
+            checkin(connection);
+          }
+          return null;
+        case "isClosed":
+          return closed[0] || connection.isClosed();
+        default:
+          if (closed[0]) {
+            throw new SQLException("Connection has already been returned to the pool");
+          }
+          try {
+            return method.invoke(connection, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+      }
+    });
+  }
+
+  private void checkin(Connection connection) {
+    try {
+      // hand the connection back in its default state
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+      if (shutdown || !idle.offer(connection)) {
+        discard(connection);
+      }
+    } catch (SQLException e) {
+      discard(connection);
+    } finally {
+      permits.release();
+    }
+  }
+
+  private static boolean isValid(Connection connection) {
+    try {
+      return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void discard(Connection connection) {
+    discarded.incrementAndGet();
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      // already broken
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getCheckouts() {
+    return checkouts.get();
+  }
+
+  public double getAverageWaitMillis() {
+    long count = checkouts.get();
+    return count == 0 ? 0.0 : totalWaitNanos.get() / 1_000_000.0 / count;
+  }
+
+  public double getMaxWaitMillis() {
+    return maxWaitNanos.get() / 1_000_000.0;
+  }
+
+  public String getStatistics() {
+    return String.format("connections opened %s, discarded %s, checkouts %s, checkout wait avg %.3f ms, max %.3f ms",
+      opened.get(), discarded.get(), getCheckouts(), getAverageWaitMillis(), getMaxWaitMillis());
+  }
+
+  /**
+   * close all idle connections, connections still checked out are closed when they are returned
+   */
+  @Override
+  public void close() {
+    shutdown = true;
+    Connection connection;
+    while ((connection = idle.poll()) != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        // closing anyway
+      }
+    }
+  }
+
+}
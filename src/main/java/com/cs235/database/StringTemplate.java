@@ -31,6 +31,10 @@ public class StringTemplate {
     return put(key, Integer.toString(value));
   }
 
+  public StringTemplate put(String key, long value) {
+    return put(key, Long.toString(value));
+  }
+
   public StringTemplate put(String key, double value) {
     return put(key, Double.toString(value));
   }
@@ -0,0 +1,68 @@
+package com.cs235.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The intermediate tables and views of a pipeline run
+ * every relation is registered before it is created and dropped when the registry is closed, after the run finished or failed,
+ * in reverse order of creation so a view is dropped before the tables it selects from
+ * <p>
+ * the intermediate tables are created UNLOGGED instead of TEMP: a temporary table is only visible to the session
+ * that created it, and the pooled connections of a run are separate sessions
+ */
+public final class TableRegistry implements AutoCloseable {
+
+  private final Deque<String> dropStatements = new ArrayDeque<>();
+
+  /**
+   * @param tableName a table to drop when the registry is closed
+   */
+  public synchronized void registerTable(String tableName) {
+    dropStatements.push(new StringTemplate("DROP TABLE IF EXISTS ${name}").put("name", SQLUtils.escapeIdentifier(tableName)).build());
+  }
+
+  /**
+   * @param viewName a view to drop when the registry is closed
+   */
+  public synchronized void registerView(String viewName) {
+    dropStatements.push(new StringTemplate("DROP VIEW IF EXISTS ${name}").put("name", SQLUtils.escapeIdentifier(viewName)).build());
+  }
+
+  public synchronized int size() {
+    return dropStatements.size();
+  }
+
+  /**
+   * drop every registered relation, a failed drop does not stop the others
+   *
+   * @throws SQLException the first failed drop, with the later ones suppressed
+   */
+  @Override
+  public synchronized void close() throws SQLException {
+    if (dropStatements.isEmpty()) {
+      return;
+    }
+    SQLException failure = null;
+    try (Connection connection = ConnectionPool.getConnection()) {
+      while (!dropStatements.isEmpty()) {
+        try (PreparedStatement ps = connection.prepareStatement(dropStatements.pop())) {
+          ps.execute();
+        } catch (SQLException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+}
@@ -0,0 +1,251 @@
+package com.cs235.dataset;
+
+import com.cs235.FileFingerprint;
+import com.cs235.Features;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A CSV dataset parsed into memory in place of a database table
+ * every feature column is dictionary encoded, the numeric columns (i.e. the coordinates) are held as doubles
+ * with NaN for a missing value, the rows are in file order
+ * <p>
+ * the table is snapshotted to a binary file with the fingerprint of its source: a header (source fingerprint, features,
+ * numeric columns, row count), the dictionaries and then the raw columns, which a later run memory maps and copies
+ * into the columns in bulk instead of parsing the CSV again (a snapshot is mapped whole, so a larger table is not snapshotted)
+ */
+public class EmbeddedTable {
+
+  private static final int SNAPSHOT_MAGIC = 0x454d4231; // EMB1
+  private static final int SOURCE_MODIFIED_OFFSET = Integer.BYTES + Long.BYTES; // behind the magic and the source size
+  private static final long MAX_SNAPSHOT_BYTES = Integer.MAX_VALUE;
+  private static final int NULL_LENGTH = -1;
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  private final EncodedDataset data;
+  private final Map<String, double[]> numericColumns;
+
+  /**
+   * @param data           the feature columns
+   * @param numericColumns the numeric columns by (lower case) name, one value per row of the data
+   */
+  public EmbeddedTable(EncodedDataset data, Map<String, double[]> numericColumns) {
+    this.data = data;
+    this.numericColumns = numericColumns;
+  }
+
+  public EncodedDataset getData() {
+    return data;
+  }
+
+  public double[] getNumericColumn(String name) {
+    double[] column = numericColumns.get(name);
+    if (column == null) {
+      throw new IllegalArgumentException(String.format("Column %s is not part of the table", name));
+    }
+    return column;
+  }
+
+  public int getRowCount() {
+    return data.getRowCount();
+  }
+
+  /**
+   * write the table to the snapshot file, through a temporary file so an interrupted snapshot keeps the previous one
+   * a snapshot larger than 2GB could not be mapped back, so it is not written (and the previous one is kept)
+   *
+   * @param file   the snapshot file
+   * @param source the fingerprint of the CSV the table was parsed from
+   * @return whether the snapshot was written
+   * @throws IOException
+   */
+  public boolean saveSnapshot(File file, FileFingerprint source) throws IOException {
+    long columnBytes = (long) data.getRowCount() * (data.getFeatures().size() * Integer.BYTES + numericColumns.size() * Double.BYTES);
+    if (columnBytes > MAX_SNAPSHOT_BYTES) {
+      return false;
+    }
+    File directory = file.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeLong(source.size);
+      out.writeLong(source.lastModified);
+      writeString(out, source.hash);
+
+      List<Features> features = data.getFeatures();
+      out.writeInt(features.size());
+      for (Features feature : features) {
+        writeString(out, feature.name());
+      }
+      out.writeInt(numericColumns.size());
+      for (String name : numericColumns.keySet()) {
+        writeString(out, name);
+      }
+      out.writeInt(data.getRowCount());
+
+      for (Features feature : features) {
+        ValueDictionary dictionary = data.getDictionary(feature);
+        out.writeInt(dictionary.size());
+        for (int code = 0; code < dictionary.size(); code++) {
+          writeString(out, dictionary.decode(code));
+        }
+      }
+
+      byte[] bytes = new byte[WRITE_BUFFER_SIZE];
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      for (Features feature : features) {
+        int[] column = data.getColumn(feature);
+        for (int from = 0; from < column.length; from += WRITE_BUFFER_SIZE / Integer.BYTES) {
+          int length = Math.min(WRITE_BUFFER_SIZE / Integer.BYTES, column.length - from);
+          buffer.clear();
+          buffer.asIntBuffer().put(column, from, length);
+          out.write(bytes, 0, length * Integer.BYTES);
+        }
+      }
+      for (double[] column : numericColumns.values()) {
+        for (int from = 0; from < column.length; from += WRITE_BUFFER_SIZE / Double.BYTES) {
+          int length = Math.min(WRITE_BUFFER_SIZE / Double.BYTES, column.length - from);
+          buffer.clear();
+          buffer.asDoubleBuffer().put(column, from, length);
+          out.write(bytes, 0, length * Double.BYTES);
+        }
+      }
+    }
+    try {
+      if (temporary.length() > MAX_SNAPSHOT_BYTES) {
+        return false; // the dictionaries pushed it over
+      }
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return true;
+    } finally {
+      temporary.delete();
+    }
+  }
+
+  /**
+   * memory map a snapshot and read it back, when it still matches the source and holds the expected columns
+   * when the source only matched by its hash (i.e. it was touched) the modification time in the snapshot is updated,
+   * so the next runs match it without hashing the source again
+   *
+   * @param file           the snapshot file
+   * @param source         the CSV the snapshot has to be taken from
+   * @param numericColumns the numeric columns the snapshot has to hold
+   * @return the table, null when there is no usable snapshot (missing, stale, of other columns or unreadable)
+   * @throws IOException
+   */
+  public static EmbeddedTable loadSnapshot(File file, File source, List<String> numericColumns) throws IOException {
+    if (!file.isFile() || file.length() > MAX_SNAPSHOT_BYTES) {
+      return null;
+    }
+    EmbeddedTable table;
+    FileFingerprint fingerprint;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != SNAPSHOT_MAGIC) {
+        return null;
+      }
+      fingerprint = new FileFingerprint(buffer.getLong(), buffer.getLong(), readString(buffer));
+
+      int featureCount = buffer.getInt();
+      if (featureCount != Features.values().length) {
+        return null;
+      }
+      Features[] features = new Features[featureCount];
+      for (int f = 0; f < features.length; f++) {
+        features[f] = Features.valueOf(readString(buffer));
+      }
+      List<String> numericNames = new ArrayList<>();
+      for (int c = buffer.getInt(); c > 0; c--) {
+        numericNames.add(readString(buffer));
+      }
+      if (!Arrays.asList(features).equals(Arrays.asList(Features.values())) || !numericNames.equals(numericColumns)
+        || !fingerprint.matches(source)) {
+        return null;
+      }
+      int rowCount = buffer.getInt();
+      if (rowCount < 0) {
+        return null;
+      }
+
+      ValueDictionary[] dictionaries = new ValueDictionary[features.length];
+      for (int f = 0; f < features.length; f++) {
+        dictionaries[f] = new ValueDictionary();
+        for (int code = buffer.getInt(); code > 0; code--) {
+          dictionaries[f].encode(readString(buffer));
+        }
+      }
+
+      if ((long) rowCount * (features.length * Integer.BYTES + numericNames.size() * Double.BYTES) > buffer.remaining()) {
+        return null; // truncated
+      }
+      int[][] columns = new int[features.length][rowCount];
+      for (int f = 0; f < columns.length; f++) {
+        buffer.asIntBuffer().get(columns[f]);
+        buffer.position(buffer.position() + rowCount * Integer.BYTES);
+        int dictionarySize = dictionaries[f].size();
+        for (int code : columns[f]) {
+          if (code < 0 || code >= dictionarySize) {
+            return null; // corrupt, not a value of the dictionary
+          }
+        }
+      }
+      Map<String, double[]> numericValues = new LinkedHashMap<>();
+      for (String name : numericNames) {
+        double[] column = new double[rowCount];
+        buffer.asDoubleBuffer().get(column);
+        buffer.position(buffer.position() + rowCount * Double.BYTES);
+        numericValues.put(name, column);
+      }
+      table = new EmbeddedTable(new EncodedDataset(Arrays.asList(features), dictionaries, columns, rowCount), numericValues);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      return null; // truncated or of another format
+    }
+
+    long sourceModified = source.lastModified();
+    if (fingerprint.lastModified != sourceModified) {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        ByteBuffer modified = ByteBuffer.allocate(Long.BYTES).putLong(0, sourceModified);
+        channel.write(modified, SOURCE_MODIFIED_OFFSET);
+      }
+    }
+    return table;
+  }
+
+  // null is a valid dictionary value
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(NULL_LENGTH);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException(String.format("String length %s at byte %s", length, buffer.position()));
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
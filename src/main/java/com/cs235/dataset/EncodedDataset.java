@@ -0,0 +1,239 @@
+package com.cs235.dataset;
+
+import com.cs235.Attribute;
+import com.cs235.Features;
+import com.cs235.database.ConnectionPool;
+import com.cs235.database.SQLUtils;
+import com.cs235.database.StringTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Columnar, dictionary encoded in-memory dataset
+ * each feature is held as a primitive int[] column of dictionary codes (one entry per row)
+ * the values of a column are stored once in the column's ValueDictionary
+ */
+public class EncodedDataset {
+
+  private static final int FETCH_SIZE = 10_000;
+
+  private final List<Features> features;
+  private final ValueDictionary[] dictionaries;
+  private final int[][] columns;
+  private final int[] featureIndex;
+  private final int rowCount;
+
+  EncodedDataset(List<Features> features, ValueDictionary[] dictionaries, int[][] columns, int rowCount) {
+    this.features = features;
+    this.dictionaries = dictionaries;
+    this.columns = columns;
+    this.rowCount = rowCount;
+
+    featureIndex = new int[Features.values().length];
+    Arrays.fill(featureIndex, -1);
+    for (int i = 0; i < features.size(); i++) {
+      featureIndex[features.get(i).ordinal()] = i;
+    }
+  }
+
+  /**
+   * Load the feature columns of the database table, building a new dictionary for each column
+   *
+   * @param tableName the table in the PostgreSQL database
+   * @param features  the columns to load
+   * @return the encoded dataset
+   * @throws Exception
+   */
+  public static EncodedDataset load(String tableName, List<Features> features) throws Exception {
+    return load(tableName, new Builder(features));
+  }
+
+  /**
+   * Load the same feature columns of the database table as the source dataset, sharing its dictionaries
+   * so codes are comparable between both datasets (i.e. a training and a test dataset)
+   *
+   * @param tableName         the table in the PostgreSQL database
+   * @param dictionarySource  the dataset to take the features and dictionaries from
+   * @return the encoded dataset
+   * @throws Exception
+   */
+  public static EncodedDataset load(String tableName, EncodedDataset dictionarySource) throws Exception {
+    return load(tableName, new Builder(dictionarySource.features, dictionarySource.dictionaries));
+  }
+
+  /**
+   * the rows are read in objectid order, so the codes (assigned in first-seen order) do not depend on the physical order
+   * of the table, which differs between imports (i.e. of concurrently copied chunks)
+   */
+  private static EncodedDataset load(String tableName, Builder builder) throws Exception {
+    String selectSql = new StringTemplate("SELECT ${fields} FROM ${tableName} ORDER BY ${oid}")
+      .put("fields", builder.features.stream().map(Features::getLabel).map(SQLUtils::escapeIdentifier).collect(Collectors.joining(",")))
+      .put("tableName", SQLUtils.escapeIdentifier(tableName))
+      .put("oid", SQLUtils.escapeIdentifier(Features.OID_COLUMN.getLabel())).build();
+
+    try (Connection connection = ConnectionPool.getConnection()) {
+      // the cursor is only streamed (instead of fully buffered) outside of auto commit
+      connection.setAutoCommit(false);
+      try (PreparedStatement ps = connection.prepareStatement(selectSql)) {
+        ps.setFetchSize(FETCH_SIZE);
+        ResultSet rs = ps.executeQuery();
+        String[] values = new String[builder.features.size()];
+        while (rs.next()) {
+          for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getString(i + 1);
+          }
+          builder.addRow(values);
+        }
+      }
+      connection.commit();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Copy some rows of the feature columns into a new dataset, building a new dictionary for each column
+   * the codes are assigned in the order the values are first seen in the rows, the same as loading the rows from a table
+   *
+   * @param features the columns to copy
+   * @param rows     the row indexes to copy, in order
+   * @return the encoded dataset
+   */
+  public EncodedDataset select(List<Features> features, int[] rows) {
+    return select(new Builder(features), rows);
+  }
+
+  /**
+   * Copy some rows of the same feature columns as the source dataset, sharing its dictionaries
+   *
+   * @param rows             the row indexes to copy, in order
+   * @param dictionarySource the dataset to take the features and dictionaries from
+   * @return the encoded dataset
+   */
+  public EncodedDataset select(int[] rows, EncodedDataset dictionarySource) {
+    return select(new Builder(dictionarySource.features, dictionarySource.dictionaries), rows);
+  }
+
+  private EncodedDataset select(Builder builder, int[] rows) {
+    int[] indexes = builder.features.stream().mapToInt(this::indexOf).toArray();
+    String[] values = new String[indexes.length];
+    for (int row : rows) {
+      for (int i = 0; i < indexes.length; i++) {
+        values[i] = dictionaries[indexes[i]].decode(columns[indexes[i]][row]);
+      }
+      builder.addRow(values);
+    }
+    return builder.build();
+  }
+
+  public List<Features> getFeatures() {
+    return features;
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public boolean hasFeature(Features feature) {
+    return featureIndex[feature.ordinal()] != -1;
+  }
+
+  public int indexOf(Features feature) {
+    int index = featureIndex[feature.ordinal()];
+    if (index == -1) {
+      throw new IllegalArgumentException(String.format("Feature %s is not part of the dataset", feature));
+    }
+    return index;
+  }
+
+  public int[] getColumn(Features feature) {
+    return columns[indexOf(feature)];
+  }
+
+  public ValueDictionary getDictionary(Features feature) {
+    return dictionaries[indexOf(feature)];
+  }
+
+  public int getCode(Features feature, int row) {
+    return columns[indexOf(feature)][row];
+  }
+
+  public String getValue(Features feature, int row) {
+    int index = indexOf(feature);
+    return dictionaries[index].decode(columns[index][row]);
+  }
+
+  /**
+   * materialize a single row as attributes, only intended for reporting
+   *
+   * @param row the row index
+   * @return the attribute values of the row in feature order
+   */
+  public List<Attribute> getRow(int row) {
+    List<Attribute> record = new ArrayList<>(features.size());
+    for (int i = 0; i < features.size(); i++) {
+      record.add(new Attribute(features.get(i), dictionaries[i].decode(columns[i][row])));
+    }
+    return record;
+  }
+
+  /**
+   * Accumulates rows into growable code columns
+   */
+  public static class Builder {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final List<Features> features;
+    private final ValueDictionary[] dictionaries;
+    private int[][] columns;
+    private int rowCount;
+
+    public Builder(List<Features> features) {
+      this(features, newDictionaries(features.size()));
+    }
+
+    public Builder(List<Features> features, ValueDictionary[] dictionaries) {
+      this.features = new ArrayList<>(features);
+      this.dictionaries = dictionaries;
+      columns = new int[features.size()][INITIAL_CAPACITY];
+    }
+
+    private static ValueDictionary[] newDictionaries(int size) {
+      ValueDictionary[] dictionaries = new ValueDictionary[size];
+      for (int i = 0; i < size; i++) {
+        dictionaries[i] = new ValueDictionary();
+      }
+      return dictionaries;
+    }
+
+    /**
+     * @param values the row values, in the same order as the features
+     */
+    public Builder addRow(String[] values) {
+      if (rowCount == columns[0].length) {
+        for (int i = 0; i < columns.length; i++) {
+          columns[i] = Arrays.copyOf(columns[i], rowCount * 2);
+        }
+      }
+      for (int i = 0; i < columns.length; i++) {
+        columns[i][rowCount] = dictionaries[i].encode(values[i]);
+      }
+      rowCount++;
+      return this;
+    }
+
+    public EncodedDataset build() {
+      int[][] trimmed = new int[columns.length][];
+      for (int i = 0; i < columns.length; i++) {
+        trimmed[i] = Arrays.copyOf(columns[i], rowCount);
+      }
+      return new EncodedDataset(features, dictionaries, trimmed, rowCount);
+    }
+  }
+
+}
@@ -0,0 +1,54 @@
+package com.cs235.dataset;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the distinct values of a single column to dense integer codes (0..size-1)
+ * codes are assigned in first-seen order, null is a valid value and gets its own code
+ */
+public class ValueDictionary {
+
+  public static final int MISSING = -1;
+
+  private final Map<String, Integer> codes = new HashMap<>();
+  private final List<String> values = new ArrayList<>();
+
+  /**
+   * get the code for the value, adding it to the dictionary if it has not been seen yet
+   *
+   * @param value the column value (may be null)
+   * @return the code of the value
+   */
+  public int encode(String value) {
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = values.size();
+      codes.put(value, code);
+      values.add(value);
+    }
+    return code;
+  }
+
+  /**
+   * get the code for the value without modifying the dictionary
+   *
+   * @param value the column value (may be null)
+   * @return the code of the value or MISSING if the value has never been seen
+   */
+  public int lookup(String value) {
+    Integer code = codes.get(value);
+    return code == null ? MISSING : code;
+  }
+
+  public String decode(int code) {
+    return values.get(code);
+  }
+
+  public int size() {
+    return values.size();
+  }
+
+}
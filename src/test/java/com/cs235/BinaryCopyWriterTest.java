@@ -0,0 +1,75 @@
+package com.cs235;
+
+import com.cs235.CSVImporter.FieldType;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BinaryCopyWriterTest {
+
+  private static final int HEADER_BYTES = 19;
+
+  @Test
+  public void emptyFieldIsNull() throws Exception {
+    ByteBuffer row = writeRow(new FieldType[]{FieldType.fieldTypeSmallInt, FieldType.fieldTypeText, FieldType.fieldTypeText},
+      "", "", " 7 ");
+    assertEquals(3, row.getShort());
+    assertEquals(-1, row.getInt());
+    assertEquals(-1, row.getInt());
+    assertEquals(3, row.getInt());
+  }
+
+  @Test
+  public void valuesAreTrimmedForNonTextColumns() throws Exception {
+    ByteBuffer row = writeRow(new FieldType[]{FieldType.fieldTypeSmallInt}, " 7 ");
+    row.getShort();
+    assertEquals(2, row.getInt());
+    assertEquals(7, row.getShort());
+  }
+
+  @Test
+  public void literalNullInNonTextColumnIsRejected() throws Exception {
+    for (String value : new String[]{"null", " "}) {
+      try {
+        writeRow(new FieldType[]{FieldType.fieldTypeInteger}, value);
+        fail(String.format("'%s' was copied into an integer column", value));
+      } catch (IllegalArgumentException expected) {
+        // the CSV COPY rejects it too
+      }
+    }
+  }
+
+  private static ByteBuffer writeRow(FieldType[] types, String... values) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CopyIn copyIn = (CopyIn) Proxy.newProxyInstance(CopyIn.class.getClassLoader(), new Class<?>[]{CopyIn.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "writeToCopy":
+          bytes.write((byte[]) args[0], (int) args[1], (int) args[2]);
+          return null;
+        case "endCopy":
+          return 1L;
+        case "isActive":
+          return false;
+        default:
+          return null;
+      }
+    });
+    int[] fields = new int[values.length];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = i;
+    }
+    BinaryCopyWriter writer = new BinaryCopyWriter(copyIn, types);
+    writer.writeRow(values, fields);
+    writer.endCopy();
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    buffer.position(HEADER_BYTES);
+    return buffer;
+  }
+
+}
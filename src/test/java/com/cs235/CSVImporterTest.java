@@ -0,0 +1,160 @@
+package com.cs235;
+
+import com.cs235.CSVImporter.FieldType;
+import com.cs235.database.ConnectionPool;
+import com.cs235.database.SQLUtils;
+import com.cs235.dataset.EncodedDataset;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CSVImporterTest {
+
+  // the address of a PostgreSQL database (as the first argument of Main), the database tests are skipped without one
+  private static final String POSTGRES_ADDRESS = System.getProperty("postgres.address");
+
+  private static final int SAMPLE_ROWS = 10;
+
+  @Test
+  public void typesAreInferredFromTheSample() throws Exception {
+    assertArrayEquals(new FieldType[]{FieldType.fieldTypeSmallInt, FieldType.fieldTypeSmallInt, FieldType.fieldTypeSmallInt, FieldType.fieldTypeText},
+      CSVImporter.inferTypes(pastTheSample(), SAMPLE_ROWS, new int[]{0, 1, 2, 3}));
+  }
+
+  @Test
+  public void everyRecordWidensTheSampleTypes() throws Exception {
+    assertArrayEquals(new FieldType[]{FieldType.fieldTypeSmallInt, FieldType.fieldTypeInteger, FieldType.fieldTypeFloat, FieldType.fieldTypeText},
+      CSVImporter.inferTypes(pastTheSample(), new int[]{0, 1, 2, 3}));
+  }
+
+  @Test
+  public void smallFileIsTypedFromTheSample() throws Exception {
+    File file = csv(Arrays.asList("objectid,count", "1,2", "2,", "3,40000"));
+    assertArrayEquals(new FieldType[]{FieldType.fieldTypeSmallInt, FieldType.fieldTypeInteger},
+      CSVImporter.inferTypes(file, SAMPLE_ROWS, new int[]{0, 1}));
+    assertArrayEquals(new FieldType[]{FieldType.fieldTypeSmallInt},
+      CSVImporter.inferTypes(file, 2, new int[]{1}));
+  }
+
+  @Test
+  public void onlyEmptyFieldsAreMissing() throws Exception {
+    File file = csv(Arrays.asList("a,b,c", "1,null,1", "2,3, "));
+    assertArrayEquals(new FieldType[]{FieldType.fieldTypeSmallInt, FieldType.fieldTypeText, FieldType.fieldTypeText},
+      CSVImporter.inferTypes(file, new int[]{0, 1, 2}));
+  }
+
+  @Test
+  public void rejectedValuesRetryTheImport() {
+    assertTrue(CSVImporter.isRejectedValue(new SQLException("value \"40000\" is out of range for type smallint", "22003")));
+    assertTrue(CSVImporter.isRejectedValue(new RuntimeException(new SQLException("invalid input syntax for integer: \"1.5\"", "22P02"))));
+    assertTrue(CSVImporter.isRejectedValue(new IllegalArgumentException("Row 101: value '40000' is not a smallint", new NumberFormatException("out of range"))));
+    assertFalse(CSVImporter.isRejectedValue(new SQLException("relation does not exist", "42P01")));
+    assertFalse(CSVImporter.isRejectedValue(new IOException("closed")));
+  }
+
+  @Test
+  public void embeddedValuesAreTypedAsTheTable() throws Exception {
+    for (boolean pastTheSample : new boolean[]{false, true}) {
+      List<String> lines = new ArrayList<>();
+      List<String> header = new ArrayList<>();
+      for (Features feature : Features.values()) {
+        header.add(feature.getLabel());
+      }
+      lines.add(String.join(",", header));
+      List<String> weather = new ArrayList<>();
+      for (int i = 1; i <= 100; i++) {
+        weather.add(String.format("0%s", i % 7));
+      }
+      if (pastTheSample) {
+        weather.add("1.5");
+      }
+      for (String value : weather) {
+        String[] values = new String[header.size()];
+        Arrays.fill(values, "");
+        values[Features.WEATHER_COLUMN.ordinal()] = value;
+        lines.add(String.join(",", values));
+      }
+
+      // the sampled rows are small integers, a float past them types the column as every row does
+      FieldType type = pastTheSample ? FieldType.fieldTypeFloat : FieldType.fieldTypeSmallInt;
+      EncodedDataset data = CSVImporter.importToMemory(csv(lines), SAMPLE_ROWS, Collections.emptyList()).getData();
+      assertEquals(weather.size(), data.getRowCount());
+      for (int row = 0; row < weather.size(); row++) {
+        assertEquals(type.toDBValue(weather.get(row)), data.getValue(Features.WEATHER_COLUMN, row));
+        assertNull(data.getValue(Features.ALCOHOL_COLUMN, row));
+      }
+    }
+  }
+
+  @Test
+  public void valuePastTheSampleWidensTheTable() throws Exception {
+    assumeTrue("postgres.address is not set", POSTGRES_ADDRESS != null);
+    ConnectionPool.initialize(String.format("jdbc:postgresql://%s", POSTGRES_ADDRESS), 2);
+    try {
+      for (CSVImporter.CopyFormat format : CSVImporter.CopyFormat.values()) {
+        String tableName = CSVImporter.importToDatabaseTable(pastTheSample(), SAMPLE_ROWS, null, 1, format);
+        try (Connection connection = ConnectionPool.getConnection();
+             PreparedStatement typesPs = connection.prepareStatement("SELECT column_name, data_type FROM information_schema.columns WHERE table_name = ? ORDER BY ordinal_position");
+             PreparedStatement countPs = connection.prepareStatement(String.format("SELECT COUNT(*) FROM %s", SQLUtils.escapeIdentifier(tableName)))) {
+          typesPs.setString(1, tableName);
+          ResultSet rs = typesPs.executeQuery();
+          Map<String, String> types = new LinkedHashMap<>();
+          while (rs.next()) {
+            types.put(rs.getString(1), rs.getString(2));
+          }
+          assertEquals("integer", types.get("count"));
+          assertEquals("double precision", types.get("ratio"));
+
+          rs = countPs.executeQuery();
+          rs.next();
+          assertEquals(101, rs.getLong(1));
+        } finally {
+          CSVImporter.dropTable(tableName);
+        }
+      }
+    } finally {
+      ConnectionPool.get().close();
+    }
+  }
+
+  /**
+   * 100 rows of small integers, then a row far past the sample that overflows a smallint and does not fit an integer column
+   */
+  private static File pastTheSample() throws Exception {
+    List<String> lines = new ArrayList<>();
+    lines.add("objectid,count,ratio,label");
+    for (int i = 1; i <= 100; i++) {
+      lines.add(String.format("%s,%s,%s,", i, i % 7, i % 3));
+    }
+    lines.add("101,40000,1.5,");
+    return csv(lines);
+  }
+
+  private static File csv(List<String> lines) throws Exception {
+    File file = File.createTempFile("csvimporter", ".csv");
+    file.deleteOnExit();
+    Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    return file;
+  }
+
+}
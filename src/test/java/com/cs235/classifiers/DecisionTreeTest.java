@@ -0,0 +1,62 @@
+package com.cs235.classifiers;
+
+import com.cs235.Features;
+import com.cs235.TreeNode;
+import com.cs235.dataset.EmbeddedTable;
+import com.cs235.dataset.EncodedDataset;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecisionTreeTest {
+
+  private static final int ROWS = 2_000;
+
+  @Test
+  public void forkedTreeIsTheSequentialTree() throws Exception {
+    EncodedDataset data = dataset();
+    try (PipelineContext context = PipelineContext.createEmbedded(new EmbeddedTable(data, Collections.emptyMap()), 42)) {
+      TreeNode sequential = new DecisionTree(context, 4, Integer.MAX_VALUE).train(data);
+      TreeNode forked = new DecisionTree(context, 4, 1).train(data);
+      assertTrue(sequential.children.size() > 0);
+      assertSameTree("root", sequential, forked);
+    }
+  }
+
+  private static void assertSameTree(String path, TreeNode expected, TreeNode actual) {
+    assertEquals(path, expected.feature, actual.feature);
+    assertEquals(path, expected.value, actual.value);
+    assertEquals(path, expected.parentValue, actual.parentValue);
+    assertEquals(path, expected.children.size(), actual.children.size());
+    for (int i = 0; i < expected.children.size(); i++) {
+      assertSameTree(String.format("%s/%s", path, i), expected.children.get(i), actual.children.get(i));
+    }
+  }
+
+  /**
+   * a few values per feature drawn from a fixed seed, some of them missing, the severity following the weather more often than not
+   */
+  private static EncodedDataset dataset() {
+    Random random = new Random(42);
+    EncodedDataset.Builder builder = new EncodedDataset.Builder(Arrays.asList(Features.values()));
+    for (int row = 0; row < ROWS; row++) {
+      String[] values = new String[Features.values().length];
+      for (int f = 0; f < values.length; f++) {
+        int value = random.nextInt(4);
+        values[f] = value == 0 ? null : Integer.toString(value);
+      }
+      values[Features.OID_COLUMN.ordinal()] = Integer.toString(row + 1);
+      if (random.nextInt(3) > 0) {
+        values[Features.SEVERITY_COLUMN.ordinal()] = values[Features.WEATHER_COLUMN.ordinal()];
+      }
+      builder.addRow(values);
+    }
+    return builder.build();
+  }
+
+}
@@ -0,0 +1,71 @@
+package com.cs235.classifiers;
+
+import com.cs235.Features;
+import com.cs235.dataset.EncodedDataset;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class NaiveBayesModelTest {
+
+  private static final String[][] RECORDS = {
+    {"1", "A", "Y", "1"}, {"2", "B", null, "2"}, {"2", "A", "N", "3"}, {"4", "C", "N", "1"},
+    {"3", "B", "Y", "2"}, {"4", "A", null, "4"}, {"1", null, "N", "3"}, {"2", "C", "Y", "1"}
+  };
+
+  @Test
+  public void checkpointRoundTrip() throws Exception {
+    NaiveBayesModel model = new NaiveBayesModel(Classifier.attributes);
+    model.update(batch(0, RECORDS.length));
+
+    File checkpoint = temporaryCheckpoint();
+    model.save(checkpoint);
+    NaiveBayesModel loaded = NaiveBayesModel.load(checkpoint);
+
+    assertEquals(model.getTotal(), loaded.getTotal());
+    assertEquals(model.getSeverityProbabilities(), loaded.getSeverityProbabilities());
+    assertEquals(model.getProbabilities(), loaded.getProbabilities());
+  }
+
+  @Test
+  public void refreshedCheckpointMatchesTrainingOnEveryRecord() throws Exception {
+    File checkpoint = temporaryCheckpoint();
+    checkpoint.delete();
+    NaiveBayesRefresh.refresh(checkpoint, batch(0, 5));
+    NaiveBayesModel refreshed = NaiveBayesRefresh.refresh(checkpoint, batch(5, RECORDS.length));
+
+    NaiveBayesModel trained = new NaiveBayesModel(Classifier.attributes);
+    trained.update(batch(0, RECORDS.length));
+
+    for (NaiveBayesModel model : new NaiveBayesModel[]{refreshed, NaiveBayesModel.load(checkpoint)}) {
+      assertEquals(trained.getTotal(), model.getTotal());
+      assertEquals(trained.getSeverityProbabilities(), model.getSeverityProbabilities());
+      assertEquals(trained.getProbabilities(), model.getProbabilities());
+    }
+  }
+
+  /**
+   * the records from one index to another, the severity, weather, alcohol and lighting of each record (the other attributes missing)
+   */
+  private static EncodedDataset batch(int from, int to) {
+    EncodedDataset.Builder builder = new EncodedDataset.Builder(Classifier.allAttributes);
+    for (int record = from; record < to; record++) {
+      String[] values = new String[Classifier.allAttributes.size()];
+      values[Classifier.allAttributes.indexOf(Features.SEVERITY_COLUMN)] = RECORDS[record][0];
+      values[Classifier.allAttributes.indexOf(Features.WEATHER_COLUMN)] = RECORDS[record][1];
+      values[Classifier.allAttributes.indexOf(Features.ALCOHOL_COLUMN)] = RECORDS[record][2];
+      values[Classifier.allAttributes.indexOf(Features.LIGHTING_COLUMN)] = RECORDS[record][3];
+      builder.addRow(values);
+    }
+    return builder.build();
+  }
+
+  private static File temporaryCheckpoint() throws Exception {
+    File checkpoint = File.createTempFile("naivebayes", ".checkpoint");
+    checkpoint.deleteOnExit();
+    return checkpoint;
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.cs235.classifiers;
+
+import com.cs235.Features;
+import com.cs235.dataset.EncodedDataset;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelSupportCounterTest {
+
+  private static final List<Features> FEATURES = Arrays.asList(Features.SEVERITY_COLUMN, Features.WEATHER_COLUMN, Features.LIGHTING_COLUMN);
+
+  // enough rows to be split into several partitions at any parallelism
+  private static final int ROWS = 20_000;
+
+  @Test
+  public void supportsDoNotDependOnTheParallelism() {
+    ItemCatalog catalog = new ItemCatalog(dataset());
+    CandidateTrie candidates = new CandidateTrie(1);
+    for (int item = 0; item < catalog.size(); item++) {
+      candidates.add(new int[]{item});
+    }
+
+    for (int size = 2; size <= FEATURES.size(); size++) {
+      candidates = candidates.generateCandidates(catalog);
+      assertTrue(candidates.size() > 0);
+      int[] sequential = catalog.count(candidates, 0, ROWS);
+      assertArrayEquals(sequential, count(catalog, candidates, 1));
+      assertArrayEquals(sequential, count(catalog, candidates, 4));
+    }
+  }
+
+  private static int[] count(ItemCatalog catalog, CandidateTrie candidates, int parallelism) {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return new ParallelSupportCounter(catalog, pool).count(candidates);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * a few values per feature drawn from a fixed seed, some of them missing
+   */
+  private static EncodedDataset dataset() {
+    Random random = new Random(42);
+    EncodedDataset.Builder builder = new EncodedDataset.Builder(FEATURES);
+    for (int row = 0; row < ROWS; row++) {
+      String[] values = new String[FEATURES.size()];
+      for (int f = 0; f < values.length; f++) {
+        int value = random.nextInt(4);
+        values[f] = value == 0 ? null : Integer.toString(value);
+      }
+      builder.addRow(values);
+    }
+    return builder.build();
+  }
+
+}
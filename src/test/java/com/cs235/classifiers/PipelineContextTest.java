@@ -0,0 +1,111 @@
+package com.cs235.classifiers;
+
+import com.cs235.Features;
+import com.cs235.database.ConnectionPool;
+import com.cs235.dataset.EmbeddedTable;
+import com.cs235.dataset.EncodedDataset;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+public class PipelineContextTest {
+
+  // the address of a PostgreSQL database (as the first argument of Main), the database tests are skipped without one
+  private static final String POSTGRES_ADDRESS = System.getProperty("postgres.address");
+
+  private static final long[] SEEDS = {0, 42, -7, 1_103_515_245L, Long.MAX_VALUE, Long.MIN_VALUE};
+  private static final long[] OBJECTIDS = {Long.MAX_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE + 1L, Integer.MIN_VALUE, 2_147_483_647L * 3};
+
+  @Test
+  public void splitBucketMatchesTheViewExpression() throws Exception {
+    assumeTrue("postgres.address is not set", POSTGRES_ADDRESS != null);
+    ConnectionPool.initialize(String.format("jdbc:postgresql://%s", POSTGRES_ADDRESS), 1);
+    try (Connection connection = ConnectionPool.getConnection()) {
+      for (long seed : SEEDS) {
+        String selectSql = String.format("SELECT o, %s FROM (SELECT generate_series(-20000, 20000)::numeric AS o UNION ALL VALUES %s) AS objectids",
+          PipelineContext.splitBucketSql("o", seed), values(OBJECTIDS));
+        try (PreparedStatement ps = connection.prepareStatement(selectSql)) {
+          ResultSet rs = ps.executeQuery();
+          int rows = 0;
+          while (rs.next()) {
+            long objectid = rs.getBigDecimal(1).longValueExact();
+            assertEquals(String.format("objectid %s, seed %s", objectid, seed), PipelineContext.splitBucket(objectid, seed), rs.getInt(2));
+            rows++;
+          }
+          assertEquals(40001 + OBJECTIDS.length, rows);
+        }
+      }
+      try (PreparedStatement ps = connection.prepareStatement(String.format("SELECT %s", PipelineContext.splitBucketSql("NULL", 42)))) {
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        assertNull(rs.getObject(1)); // a null objectid is in neither view, as in the embedded split
+      }
+    } finally {
+      ConnectionPool.get().close();
+    }
+  }
+
+  @Test
+  public void embeddedRowsAreReadInObjectidOrder() throws Exception {
+    String[] objectids = {"5", null, "3", "10", "-1", "3"};
+    EncodedDataset.Builder builder = new EncodedDataset.Builder(Arrays.asList(Features.values()));
+    for (int row = 0; row < objectids.length; row++) {
+      String[] values = new String[Features.values().length];
+      values[Features.SEVERITY_COLUMN.ordinal()] = "row " + row;
+      values[Features.OID_COLUMN.ordinal()] = objectids[row];
+      builder.addRow(values);
+    }
+    EncodedDataset data = builder.build();
+
+    // ascending, nulls last, equal objectids in file order (as ORDER BY objectid on a table copied in file order)
+    int[] ordered = {4, 2, 5, 0, 3, 1};
+    assertArrayEquals(ordered, PipelineContext.rowsByObjectid(data));
+
+    long seed = 42;
+    try (PipelineContext context = PipelineContext.createEmbedded(new EmbeddedTable(data, Collections.emptyMap()), seed)) {
+      List<String> training = new ArrayList<>();
+      List<String> test = new ArrayList<>();
+      for (int row : ordered) {
+        if (objectids[row] != null) {
+          (PipelineContext.splitBucket(Long.parseLong(objectids[row]), seed) < 80 ? training : test).add("row " + row);
+        }
+      }
+      assertEquals(training, severities(context.getTrainingData()));
+      assertEquals(test, severities(context.getTestData()));
+
+      List<String> all = new ArrayList<>();
+      for (int row : ordered) {
+        all.add("row " + row);
+      }
+      assertEquals(all, severities(context.loadDataset()));
+    }
+  }
+
+  private static List<String> severities(EncodedDataset data) {
+    List<String> values = new ArrayList<>();
+    for (int row = 0; row < data.getRowCount(); row++) {
+      values.add(data.getValue(Features.SEVERITY_COLUMN, row));
+    }
+    return values;
+  }
+
+  private static String values(long[] objectids) {
+    List<String> values = new ArrayList<>();
+    for (long objectid : objectids) {
+      values.add(String.format("(%s)", objectid));
+    }
+    return String.join(",", values);
+  }
+
+}
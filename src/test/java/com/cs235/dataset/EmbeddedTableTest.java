@@ -0,0 +1,130 @@
+package com.cs235.dataset;
+
+import com.cs235.Features;
+import com.cs235.FileFingerprint;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EmbeddedTableTest {
+
+  private static final List<String> NUMERIC_COLUMNS = Collections.singletonList("x");
+  private static final int SOURCE_MODIFIED_OFFSET = 12;
+  private static final int SOURCE_HASH_OFFSET = 20;
+
+  @Test
+  public void snapshotReadsBackTheTable() throws Exception {
+    File source = source();
+    File snapshot = temporaryFile(".snapshot");
+    EmbeddedTable table = table();
+    assertEquals(true, table.saveSnapshot(snapshot, FileFingerprint.of(source)));
+
+    EmbeddedTable loaded = EmbeddedTable.loadSnapshot(snapshot, source, NUMERIC_COLUMNS);
+    assertNotNull(loaded);
+    assertEquals(table.getRowCount(), loaded.getRowCount());
+    for (Features feature : Features.values()) {
+      for (int row = 0; row < table.getRowCount(); row++) {
+        assertEquals(table.getData().getValue(feature, row), loaded.getData().getValue(feature, row));
+      }
+    }
+    assertArrayEquals(table.getNumericColumn("x"), loaded.getNumericColumn("x"), 0);
+  }
+
+  @Test
+  public void touchedSourceUpdatesTheSnapshotFingerprint() throws Exception {
+    File source = source();
+    File snapshot = temporaryFile(".snapshot");
+    table().saveSnapshot(snapshot, FileFingerprint.of(source));
+
+    long touched = source.lastModified() + 60_000;
+    source.setLastModified(touched);
+    assertNotNull(EmbeddedTable.loadSnapshot(snapshot, source, NUMERIC_COLUMNS)); // matched by the hash
+    try (RandomAccessFile file = new RandomAccessFile(snapshot, "r")) {
+      file.seek(SOURCE_MODIFIED_OFFSET);
+      assertEquals(source.lastModified(), file.readLong());
+    }
+    assertNotNull(EmbeddedTable.loadSnapshot(snapshot, source, NUMERIC_COLUMNS));
+  }
+
+  @Test
+  public void corruptStringLengthIsNotASnapshot() throws Exception {
+    File source = source();
+    File snapshot = temporaryFile(".snapshot");
+    for (int length : new int[]{-2, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+      table().saveSnapshot(snapshot, FileFingerprint.of(source));
+      try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+        file.seek(SOURCE_HASH_OFFSET);
+        file.writeInt(length);
+      }
+      assertNull(EmbeddedTable.loadSnapshot(snapshot, source, NUMERIC_COLUMNS));
+    }
+  }
+
+  @Test
+  public void corruptCodeIsNotASnapshot() throws Exception {
+    File source = source();
+    File snapshot = temporaryFile(".snapshot");
+    EmbeddedTable table = table();
+    for (int code : new int[]{-1, table.getData().getDictionary(Features.values()[Features.values().length - 1]).size(), Integer.MAX_VALUE}) {
+      table.saveSnapshot(snapshot, FileFingerprint.of(source));
+      try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+        // the code of the last row of the last feature, before the numeric column
+        file.seek(file.length() - table.getRowCount() * Double.BYTES - Integer.BYTES);
+        file.writeInt(code);
+      }
+      assertNull(EmbeddedTable.loadSnapshot(snapshot, source, NUMERIC_COLUMNS));
+    }
+  }
+
+  @Test
+  public void truncatedSnapshotIsNotASnapshot() throws Exception {
+    File source = source();
+    File snapshot = temporaryFile(".snapshot");
+    table().saveSnapshot(snapshot, FileFingerprint.of(source));
+    try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+      file.setLength(file.length() - 1);
+    }
+    assertNull(EmbeddedTable.loadSnapshot(snapshot, source, NUMERIC_COLUMNS));
+  }
+
+  private static EmbeddedTable table() {
+    EncodedDataset.Builder builder = new EncodedDataset.Builder(Arrays.asList(Features.values()));
+    double[] x = new double[3];
+    for (int row = 0; row < x.length; row++) {
+      String[] values = new String[Features.values().length];
+      values[Features.OID_COLUMN.ordinal()] = Integer.toString(row + 1);
+      values[Features.WEATHER_COLUMN.ordinal()] = row == 1 ? null : "clear " + row;
+      builder.addRow(values);
+      x[row] = row == 2 ? Double.NaN : row * 1.5;
+    }
+    Map<String, double[]> numericColumns = new LinkedHashMap<>();
+    numericColumns.put("x", x);
+    return new EmbeddedTable(builder.build(), numericColumns);
+  }
+
+  private static File source() throws Exception {
+    File source = temporaryFile(".csv");
+    Files.write(source.toPath(), Arrays.asList("objectid,x", "1,0", "2,1.5", "3,"), StandardCharsets.UTF_8);
+    return source;
+  }
+
+  private static File temporaryFile(String suffix) throws Exception {
+    File file = File.createTempFile("embeddedtable", suffix);
+    file.deleteOnExit();
+    return file;
+  }
+
+}